@@ -6,7 +6,10 @@
 #include <stddef.h>
 #include <stdint.h>
 
+// Release builds (make release) define CLOX_RELEASE to run without the traces
+#ifndef CLOX_RELEASE
 #define DEBUG_PRINT_CODE
 #define DEBUG_TRACE_EXECUTION
+#endif // CLOX_RELEASE
 
 #endif // CLOX_COMMON_H
@@ -0,0 +1,32 @@
+package tech.riadh.lox;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, which reports the allocation
+ * rate and the garbage collections next to the time of each benchmark.
+ *
+ * Arguments are passed on to JMH, for instance a regular expression selecting
+ * the benchmarks to run:
+ *
+ * <pre>
+ * mvn -P jmh package
+ * java -jar target/benchmarks.jar InterpreterBenchmark
+ * </pre>
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
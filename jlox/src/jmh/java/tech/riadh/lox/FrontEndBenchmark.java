@@ -0,0 +1,94 @@
+package tech.riadh.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the front end on a generated script of about a megabyte.
+ *
+ * The parser pulls its tokens from the scanner, so {@link #parse()} includes
+ * scanning; the difference with {@link #scan()} is the cost of parsing itself.
+ * {@link #resolve()} resolves the same tree again on each call, which assigns
+ * the same depths and slots every time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrontEndBenchmark {
+	private static final int SIZE = 1024 * 1024;
+
+	private String source;
+	private List<Stmt> statements;
+
+	@Setup
+	public void setup() {
+		source = generate(SIZE);
+		statements = new Parser(new Scanner(source)).parse();
+		if (Lox.hadError) {
+			throw new IllegalStateException("The generated script doesn't compile.");
+		}
+	}
+
+	@Benchmark
+	public Object scan() {
+		return new Scanner(source).scanTokens();
+	}
+
+	@Benchmark
+	public Object parse() {
+		return new Parser(new Scanner(source)).parse();
+	}
+
+	@Benchmark
+	public Object resolve() {
+		new Resolver().resolve(statements);
+		return statements;
+	}
+
+	/**
+	 * Generates a script of roughly the given size out of functions, closures
+	 * and classes like the ones of {@code test.lox}.
+	 */
+	private static String generate(int size) {
+		StringBuilder script = new StringBuilder(size + 1024);
+		for (int i = 0; script.length() < size; i++) {
+			script.append("// Declarations number ").append(i).append('\n');
+			script.append("fun fib").append(i).append("(n) {\n");
+			script.append("    if (n <= 1) return n;\n");
+			script.append("    return fib").append(i).append("(n - 2) + fib").append(i).append("(n - 1);\n");
+			script.append("}\n");
+			script.append("fun makeCounter").append(i).append("() {\n");
+			script.append("    var i = ").append(i).append(";\n");
+			script.append("    fun count() {\n");
+			script.append("        i = i + 1;\n");
+			script.append("        return i;\n");
+			script.append("    }\n");
+			script.append("    return count;\n");
+			script.append("}\n");
+			script.append("class Token").append(i).append(" {\n");
+			script.append("    init(lexeme, line) {\n");
+			script.append("        this.lexeme = lexeme;\n");
+			script.append("        this.line = line;\n");
+			script.append("    }\n");
+			script.append("    describe() {\n");
+			script.append("        for (var j = 0; j < this.line; j = j + 1) print \"token \" + this.lexeme;\n");
+			script.append("    }\n");
+			script.append("}\n");
+		}
+		return script.toString();
+	}
+}
@@ -0,0 +1,142 @@
+package tech.riadh.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the tree-walking interpreter on small programs, each exercising one
+ * of the patterns of {@code test.lox}.
+ *
+ * Programs are compiled once and run on a fresh {@link Interpreter} on each
+ * call, so the nodes keep the specializations and inline caches of the
+ * previous runs, as the hot code of a long program would. Each program leaves
+ * its outcome in the global {@code result}, which the benchmark returns.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InterpreterBenchmark {
+	private static final Token RESULT = new Token(TokenType.IDENTIFIER, "result", null, 1);
+
+	private static final String FIB = """
+			fun fib(n) {
+			    if (n <= 1) return n;
+			    return fib(n - 2) + fib(n - 1);
+			}
+			var result = fib(20);
+			""";
+
+	private static final String CLOSURES = """
+			fun makeCounter() {
+			    var i = 0;
+			    fun count() {
+			        i = i + 1;
+			        return i;
+			    }
+			    return count;
+			}
+			var counter = makeCounter();
+			var result = 0;
+			for (var n = 0; n < 10000; n = n + 1) result = counter();
+			""";
+
+	private static final String METHODS = """
+			class Adder {
+			    add(a, b) {
+			        return a + b;
+			    }
+			}
+			var adder = Adder();
+			var result = 0;
+			for (var n = 0; n < 10000; n = n + 1) result = adder.add(result, n);
+			""";
+
+	private static final String FIELDS = """
+			class Point {
+			    init(x, y) {
+			        this.x = x;
+			        this.y = y;
+			    }
+			}
+			var point = Point(0, 1);
+			for (var n = 0; n < 10000; n = n + 1) {
+			    point.x = point.x + point.y;
+			    point.y = point.y + 1;
+			}
+			var result = point.x;
+			""";
+
+	private static final String STRINGS = """
+			var result = "";
+			for (var n = 0; n < 1000; n = n + 1) result = result + "lox";
+			""";
+
+	private List<Stmt> fib;
+	private List<Stmt> closures;
+	private List<Stmt> methods;
+	private List<Stmt> fields;
+	private List<Stmt> strings;
+
+	@Setup
+	public void setup() {
+		fib = compile(FIB);
+		closures = compile(CLOSURES);
+		methods = compile(METHODS);
+		fields = compile(FIELDS);
+		strings = compile(STRINGS);
+	}
+
+	@Benchmark
+	public Object fib() {
+		return run(fib);
+	}
+
+	@Benchmark
+	public Object closures() {
+		return run(closures);
+	}
+
+	@Benchmark
+	public Object methods() {
+		return run(methods);
+	}
+
+	@Benchmark
+	public Object fields() {
+		return run(fields);
+	}
+
+	@Benchmark
+	public Object strings() {
+		// Flatten the rope, as printing the string would
+		return run(strings).toString();
+	}
+
+	private static List<Stmt> compile(String source) {
+		List<Stmt> statements = Lox.compile(source);
+		if (Lox.hadError) {
+			throw new IllegalStateException("Can't compile benchmark:\n" + source);
+		}
+		return statements;
+	}
+
+	private static Object run(List<Stmt> program) {
+		Interpreter interpreter = new Interpreter();
+		interpreter.interpret(program);
+		return interpreter.globals.get(RESULT);
+	}
+}
@@ -0,0 +1,95 @@
+package tech.riadh.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A chunk of bytecode compiled by the {@link Compiler} for the {@link VM},
+ * modeled after clox's Chunk.
+ */
+class Chunk {
+	/**
+	 * The line of the first instruction starting at a given offset. Lines are
+	 * stored run-length encoded, a new entry is only added when the line of the
+	 * written code changes.
+	 */
+	private static class Line {
+		final int offset;
+		final int line;
+
+		Line(int offset, int line) {
+			this.offset = offset;
+			this.line = line;
+		}
+	}
+
+	byte[] code = new byte[8];
+	int count = 0;
+	Object[] constants = new Object[8];
+	private int constantCount = 0;
+	private final Map<Object, Integer> constantIndexes = new HashMap<>();
+	private final List<Line> lines = new ArrayList<>();
+
+	/**
+	 * Appends a byte to the chunk.
+	 *
+	 * @param b    The byte to write
+	 * @param line The source line the byte was compiled from
+	 */
+	void write(byte b, int line) {
+		if (count == code.length) {
+			code = Arrays.copyOf(code, code.length * 2);
+		}
+		code[count++] = b;
+
+		if (!lines.isEmpty() && lines.get(lines.size() - 1).line == line) {
+			return;
+		}
+		lines.add(new Line(count - 1, line));
+	}
+
+	/**
+	 * Adds a value to the constant pool, reusing the index of an equal constant
+	 * if there is one.
+	 *
+	 * @return The index of the constant
+	 */
+	int addConstant(Object value) {
+		Integer index = constantIndexes.get(value);
+		if (index != null) {
+			return index;
+		}
+		if (constantCount == constants.length) {
+			constants = Arrays.copyOf(constants, constantCount * 2);
+		}
+		constants[constantCount] = value;
+		constantIndexes.put(value, constantCount);
+		return constantCount++;
+	}
+
+	/**
+	 * Returns the source line of the instruction at the given offset.
+	 */
+	int getLine(int offset) {
+		int start = 0; // start is always inclusive
+		int end = lines.size(); // end is always exclusive
+
+		while (start < end - 1) {
+			int middle = (start + end) / 2;
+			Line line = lines.get(middle);
+
+			if (offset > line.offset) {
+				start = middle;
+			} else if (offset < line.offset) {
+				end = middle;
+			} else {
+				return line.line;
+			}
+		}
+
+		return lines.get(start).line;
+	}
+}
@@ -0,0 +1,506 @@
+package tech.riadh.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer of JVM class files, supporting just what the {@link Jit}
+ * needs: a constant pool, fields and methods with code.
+ *
+ * Classes are written with the Java 5 class file version, so that the JVM
+ * verifies them by type inference and the writer doesn't need to compute stack
+ * map frames.
+ */
+class ClassFileWriter {
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	private static final int MAJOR_VERSION = 49;
+
+	private static final byte CONSTANT_UTF8 = 1;
+	private static final byte CONSTANT_INTEGER = 3;
+	private static final byte CONSTANT_DOUBLE = 6;
+	private static final byte CONSTANT_CLASS = 7;
+	private static final byte CONSTANT_FIELDREF = 9;
+	private static final byte CONSTANT_METHODREF = 10;
+	private static final byte CONSTANT_INTERFACE_METHODREF = 11;
+	private static final byte CONSTANT_NAME_AND_TYPE = 12;
+
+	/**
+	 * The constant pool being written, each entry is identified by a key
+	 * describing its content so that entries are only written once.
+	 */
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream(pool);
+	private final Map<String, Integer> poolIndexes = new HashMap<>();
+	private int poolCount = 1;
+
+	private final int access;
+	private final int thisClass;
+	private final int superClass;
+	private final int[] interfaces;
+	private final List<byte[]> fields = new ArrayList<>();
+	private final List<Code> methods = new ArrayList<>();
+
+	/**
+	 * Constructs a writer for a class.
+	 *
+	 * @param access     The access flags of the class
+	 * @param name       The internal name of the class
+	 * @param superName  The internal name of the superclass
+	 * @param interfaces The internal names of the implemented interfaces
+	 */
+	ClassFileWriter(int access, String name, String superName, String... interfaces) {
+		this.access = access;
+		this.thisClass = classRef(name);
+		this.superClass = classRef(superName);
+		this.interfaces = new int[interfaces.length];
+		for (int i = 0; i < interfaces.length; i++) {
+			this.interfaces[i] = classRef(interfaces[i]);
+		}
+	}
+
+	int utf8(String value) {
+		return entry("U" + value, out -> {
+			out.writeByte(CONSTANT_UTF8);
+			out.writeUTF(value);
+		});
+	}
+
+	int integer(int value) {
+		return entry("I" + value, out -> {
+			out.writeByte(CONSTANT_INTEGER);
+			out.writeInt(value);
+		});
+	}
+
+	int doubleConstant(double value) {
+		int index = entry("D" + Double.doubleToRawLongBits(value), out -> {
+			out.writeByte(CONSTANT_DOUBLE);
+			out.writeDouble(value);
+		});
+		if (index == poolCount - 1) {
+			// Doubles take two entries of the pool
+			poolCount++;
+		}
+		return index;
+	}
+
+	int classRef(String name) {
+		int nameIndex = utf8(name);
+		return entry("C" + name, out -> {
+			out.writeByte(CONSTANT_CLASS);
+			out.writeShort(nameIndex);
+		});
+	}
+
+	int fieldRef(String owner, String name, String descriptor) {
+		return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+	}
+
+	int methodRef(String owner, String name, String descriptor) {
+		return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+	}
+
+	int interfaceMethodRef(String owner, String name, String descriptor) {
+		return memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+	}
+
+	private int memberRef(byte tag, String owner, String name, String descriptor) {
+		int classIndex = classRef(owner);
+		int nameIndex = utf8(name);
+		int descriptorIndex = utf8(descriptor);
+		int nameAndType = entry("N" + name + " " + descriptor, out -> {
+			out.writeByte(CONSTANT_NAME_AND_TYPE);
+			out.writeShort(nameIndex);
+			out.writeShort(descriptorIndex);
+		});
+		return entry(tag + owner + "." + name + " " + descriptor, out -> {
+			out.writeByte(tag);
+			out.writeShort(classIndex);
+			out.writeShort(nameAndType);
+		});
+	}
+
+	private interface EntryWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	private int entry(String key, EntryWriter writer) {
+		Integer index = poolIndexes.get(key);
+		if (index != null) {
+			return index;
+		}
+		try {
+			writer.write(poolOut);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		poolIndexes.put(key, poolCount);
+		return poolCount++;
+	}
+
+	/**
+	 * Adds a field to the class.
+	 */
+	void addField(int access, String name, String descriptor) {
+		int nameIndex = utf8(name);
+		int descriptorIndex = utf8(descriptor);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(access);
+			out.writeShort(nameIndex);
+			out.writeShort(descriptorIndex);
+			out.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		fields.add(bytes.toByteArray());
+	}
+
+	/**
+	 * Adds a method to the class and returns the {@link Code} to write its body
+	 * with.
+	 *
+	 * @param access     The access flags of the method
+	 * @param name       The name of the method
+	 * @param descriptor The descriptor of the method
+	 * @param maxLocals  The number of local variables slots taken by the receiver
+	 *                   and the parameters
+	 */
+	Code addMethod(int access, String name, String descriptor, int maxLocals) {
+		Code code = new Code(access, utf8(name), utf8(descriptor), maxLocals);
+		methods.add(code);
+		return code;
+	}
+
+	byte[] toByteArray() {
+		int codeAttribute = utf8("Code");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(MAJOR_VERSION);
+			out.writeShort(poolCount);
+			pool.writeTo(out);
+
+			out.writeShort(access);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaces.length);
+			for (int i : interfaces) {
+				out.writeShort(i);
+			}
+
+			out.writeShort(fields.size());
+			for (byte[] field : fields) {
+				out.write(field);
+			}
+
+			out.writeShort(methods.size());
+			for (Code method : methods) {
+				method.write(out, codeAttribute);
+			}
+
+			out.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * A forward or backward jump target in a method's code.
+	 */
+	static class Label {
+		private int offset = -1;
+		private final List<Integer> jumps = new ArrayList<>();
+	}
+
+	/**
+	 * The bytecode of a method. Every instruction is written along with its
+	 * effect on the operand stack, which is used to compute the maximum stack
+	 * size of the method.
+	 */
+	class Code {
+		static final int ACONST_NULL = 0x01;
+		static final int AALOAD = 0x32;
+		static final int AASTORE = 0x53;
+		static final int POP = 0x57;
+		static final int DUP = 0x59;
+		static final int DADD = 0x63;
+		static final int DSUB = 0x67;
+		static final int DMUL = 0x6b;
+		static final int DDIV = 0x6f;
+		static final int DNEG = 0x77;
+		static final int LCMP = 0x94;
+		static final int DCMPL = 0x97;
+		static final int DCMPG = 0x98;
+		static final int IFEQ = 0x99;
+		static final int IFNE = 0x9a;
+		static final int IFLT = 0x9b;
+		static final int IFGE = 0x9c;
+		static final int IFGT = 0x9d;
+		static final int IFLE = 0x9e;
+		static final int GOTO = 0xa7;
+		static final int ARETURN = 0xb0;
+		static final int RETURN = 0xb1;
+		static final int GETSTATIC = 0xb2;
+		static final int GETFIELD = 0xb4;
+		static final int PUTFIELD = 0xb5;
+		static final int INVOKEVIRTUAL = 0xb6;
+		static final int INVOKESPECIAL = 0xb7;
+		static final int INVOKESTATIC = 0xb8;
+		static final int INVOKEINTERFACE = 0xb9;
+		static final int NEW = 0xbb;
+		static final int ANEWARRAY = 0xbd;
+		static final int CHECKCAST = 0xc0;
+		static final int INSTANCEOF = 0xc1;
+
+		private static final int ICONST_0 = 0x03;
+		private static final int BIPUSH = 0x10;
+		private static final int SIPUSH = 0x11;
+		private static final int LDC_W = 0x13;
+		private static final int LDC2_W = 0x14;
+		private static final int ALOAD = 0x19;
+		private static final int ASTORE = 0x3a;
+
+		/**
+		 * The JVM limit on the size of a method's code.
+		 */
+		private static final int MAX_CODE_SIZE = 65535;
+
+		private final int access;
+		private final int name;
+		private final int descriptor;
+		private byte[] code = new byte[256];
+		private int length = 0;
+		private int stack = 0;
+		private int maxStack = 0;
+		private int maxLocals;
+
+		private Code(int access, int name, int descriptor, int maxLocals) {
+			this.access = access;
+			this.name = name;
+			this.descriptor = descriptor;
+			this.maxLocals = maxLocals;
+		}
+
+		/**
+		 * Reserves a new local variable slot.
+		 *
+		 * @throws IllegalStateException If the method has too many local variables
+		 */
+		int newLocal() {
+			if (maxLocals > 0xff) {
+				throw new IllegalStateException("Too many local variables.");
+			}
+			return maxLocals++;
+		}
+
+		/**
+		 * Writes an instruction without operands.
+		 *
+		 * @param opcode     The opcode of the instruction
+		 * @param stackDelta The change of the operand stack size
+		 */
+		void op(int opcode, int stackDelta) {
+			writeByte(opcode);
+			adjustStack(stackDelta);
+		}
+
+		void pushInt(int value) {
+			if (value >= -1 && value <= 5) {
+				writeByte(ICONST_0 + value);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				writeByte(BIPUSH);
+				writeByte(value);
+			} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				writeByte(SIPUSH);
+				writeShort(value);
+			} else {
+				writeByte(LDC_W);
+				writeShort(integer(value));
+			}
+			adjustStack(1);
+		}
+
+		void pushDouble(double value) {
+			writeByte(LDC2_W);
+			writeShort(doubleConstant(value));
+			adjustStack(2);
+		}
+
+		void load(int local) {
+			writeByte(ALOAD);
+			writeByte(local);
+			adjustStack(1);
+		}
+
+		void store(int local) {
+			writeByte(ASTORE);
+			writeByte(local);
+			adjustStack(-1);
+		}
+
+		/**
+		 * Writes an instruction taking a class as operand, like NEW, CHECKCAST or
+		 * INSTANCEOF.
+		 */
+		void type(int opcode, String className) {
+			writeByte(opcode);
+			writeShort(classRef(className));
+			adjustStack(opcode == NEW ? 1 : 0);
+		}
+
+		void field(int opcode, String owner, String name, String descriptor) {
+			writeByte(opcode);
+			writeShort(fieldRef(owner, name, descriptor));
+			switch (opcode) {
+				case GETSTATIC -> adjustStack(1);
+				case PUTFIELD -> adjustStack(-2);
+				default -> adjustStack(0); // GETFIELD
+			}
+		}
+
+		void invoke(int opcode, String owner, String name, String descriptor) {
+			int arguments = argumentSlots(descriptor);
+			writeByte(opcode);
+			if (opcode == INVOKEINTERFACE) {
+				writeShort(interfaceMethodRef(owner, name, descriptor));
+				writeByte(arguments + 1);
+				writeByte(0);
+			} else {
+				writeShort(methodRef(owner, name, descriptor));
+			}
+
+			int delta = -arguments + returnSlots(descriptor);
+			if (opcode != INVOKESTATIC) {
+				delta--; // the receiver
+			}
+			adjustStack(delta);
+		}
+
+		/**
+		 * Writes a jump instruction to the given label.
+		 */
+		void jump(int opcode, Label label) {
+			int offset = length;
+			writeByte(opcode);
+			adjustStack(opcode == GOTO ? 0 : -1);
+			if (label.offset != -1) {
+				writeShort(label.offset - offset);
+			} else {
+				label.jumps.add(offset);
+				writeShort(0);
+			}
+		}
+
+		/**
+		 * Places the label at the next instruction, patching the jumps already
+		 * written to it.
+		 *
+		 * @param stackAtLabel The size of the operand stack at the label, which can
+		 *                     differ from the current one after a GOTO
+		 */
+		void mark(Label label, int stackAtLabel) {
+			label.offset = length;
+			for (int jump : label.jumps) {
+				int offset = label.offset - jump;
+				if (offset > Short.MAX_VALUE) {
+					throw new IllegalStateException("Too much code to jump over.");
+				}
+				code[jump + 1] = (byte) ((offset >> 8) & 0xff);
+				code[jump + 2] = (byte) (offset & 0xff);
+			}
+			label.jumps.clear();
+			stack = stackAtLabel;
+		}
+
+		int stack() {
+			return stack;
+		}
+
+		private void adjustStack(int delta) {
+			stack += delta;
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		private void writeByte(int b) {
+			if (length == code.length) {
+				if (length > MAX_CODE_SIZE) {
+					throw new IllegalStateException("Method too large.");
+				}
+				code = Arrays.copyOf(code, length * 2);
+			}
+			code[length++] = (byte) b;
+		}
+
+		private void writeShort(int value) {
+			writeByte((value >> 8) & 0xff);
+			writeByte(value & 0xff);
+		}
+
+		private void write(DataOutputStream out, int codeAttribute) throws IOException {
+			if (length > MAX_CODE_SIZE) {
+				throw new IllegalStateException("Method too large.");
+			}
+			out.writeShort(access);
+			out.writeShort(name);
+			out.writeShort(descriptor);
+			out.writeShort(1); // attributes
+			out.writeShort(codeAttribute);
+			out.writeInt(12 + length);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(length);
+			out.write(code, 0, length);
+			out.writeShort(0); // exception table
+			out.writeShort(0); // attributes
+		}
+
+		/**
+		 * Counts the operand stack slots taken by the return value of a method
+		 * descriptor.
+		 */
+		private static int returnSlots(String descriptor) {
+			return switch (descriptor.charAt(descriptor.indexOf(')') + 1)) {
+				case 'V' -> 0;
+				case 'D', 'J' -> 2;
+				default -> 1;
+			};
+		}
+
+		/**
+		 * Counts the local variable slots taken by the parameters of a method
+		 * descriptor.
+		 */
+		private static int argumentSlots(String descriptor) {
+			int slots = 0;
+			int i = 1;
+			while (descriptor.charAt(i) != ')') {
+				boolean array = false;
+				char c = descriptor.charAt(i);
+				while (c == '[') {
+					array = true;
+					c = descriptor.charAt(++i);
+				}
+				if (c == 'L') {
+					i = descriptor.indexOf(';', i);
+				}
+				slots += !array && (c == 'J' || c == 'D') ? 2 : 1;
+				i++;
+			}
+			return slots;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package tech.riadh.lox;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The errors reported while compiling one module, which {@link Lox} prints once
+ * the program is loaded. The loader compiles modules concurrently, so errors
+ * are kept per module rather than printed as they're found: that way whether a
+ * given module compiled doesn't depend on the others, and the errors of a
+ * program come out in the order its modules would run.
+ */
+class CompileErrors {
+	/**
+	 * The name of the module in diagnostics, or null for the main script and
+	 * code typed at the prompt, whose errors only give their line.
+	 */
+	private final String module;
+	private final List<String> messages = new ArrayList<>();
+
+	/**
+	 * Constructs the errors of a module.
+	 *
+	 * @param path The path of the script of an imported module, or null for the
+	 *             main script and code typed at the prompt
+	 */
+	CompileErrors(Path path) {
+		module = path != null ? name(path) : null;
+	}
+
+	/**
+	 * Names a script by its path relative to the working directory when it's
+	 * under it.
+	 */
+	private static String name(Path path) {
+		Path directory = Paths.get("").toAbsolutePath();
+		Path absolute = path.toAbsolutePath();
+		return absolute.startsWith(directory) ? directory.relativize(absolute).toString() : path.toString();
+	}
+
+	void add(int line, String where, String message) {
+		String location = module != null ? module + ":" + line : String.valueOf(line);
+		messages.add("[" + location + "] Error " + where + ": " + message);
+	}
+
+	/**
+	 * Whether any error was reported.
+	 */
+	boolean any() {
+		return !messages.isEmpty();
+	}
+
+	/**
+	 * The diagnostics of the errors, in the order they were reported.
+	 */
+	List<String> messages() {
+		return messages;
+	}
+}
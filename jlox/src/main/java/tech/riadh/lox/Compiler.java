@@ -0,0 +1,767 @@
+package tech.riadh.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import tech.riadh.lox.Expr.Assign;
+import tech.riadh.lox.Expr.Binary;
+import tech.riadh.lox.Expr.Call;
+import tech.riadh.lox.Expr.Get;
+import tech.riadh.lox.Expr.Grouping;
+import tech.riadh.lox.Expr.Literal;
+import tech.riadh.lox.Expr.Logical;
+import tech.riadh.lox.Expr.Set;
+import tech.riadh.lox.Expr.Super;
+import tech.riadh.lox.Expr.This;
+import tech.riadh.lox.Expr.Unary;
+import tech.riadh.lox.Expr.Variable;
+import tech.riadh.lox.Stmt.Block;
+import tech.riadh.lox.Stmt.Class;
+import tech.riadh.lox.Stmt.Expression;
+import tech.riadh.lox.Stmt.For;
+import tech.riadh.lox.Stmt.Function;
+import tech.riadh.lox.Stmt.If;
+import tech.riadh.lox.Stmt.Import;
+import tech.riadh.lox.Stmt.Print;
+import tech.riadh.lox.Stmt.Return;
+import tech.riadh.lox.Stmt.Var;
+import tech.riadh.lox.Stmt.While;
+
+/**
+ * Compiles resolved statements into bytecode for the {@link VM}. Each function
+ * body is compiled into its own chunk, stored on its declaration.
+ *
+ * Like in clox, local variables live in the slots of the VM's value stack,
+ * pushed when declared and popped at the end of their block. The compiler
+ * follows the environments the {@link Resolver} laid variables out in to map
+ * the depth and slot of each variable to its stack slot. Variables of an
+ * enclosing function are reached through upvalues, so only the variables that
+ * closures capture leave the stack, once their scope ends.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+	/**
+	 * A function being compiled, the top-level script being one too.
+	 */
+	private static class FunctionState {
+		final FunctionState enclosing;
+		final Chunk chunk = new Chunk();
+
+		/**
+		 * Whether the function is an initializer, which returns its receiver.
+		 */
+		final boolean initializer;
+
+		/**
+		 * The number of stack slots in use by locals. Slot 0 holds the receiver of
+		 * methods, and the callee otherwise.
+		 */
+		int localCount = 1;
+
+		/**
+		 * Whether a closure captures the local in each stack slot in use.
+		 */
+		boolean[] captured = new boolean[8];
+
+		/**
+		 * The variables of enclosing functions the function captures.
+		 */
+		final List<Upvalue> upvalues = new ArrayList<>();
+
+		FunctionState(FunctionState enclosing, boolean initializer) {
+			this.enclosing = enclosing;
+			this.initializer = initializer;
+		}
+	}
+
+	/**
+	 * A variable captured by a function: a local of the enclosing function, or
+	 * one of the enclosing function's own upvalues.
+	 */
+	private static class Upvalue {
+		final boolean isLocal;
+		final int index;
+
+		Upvalue(boolean isLocal, int index) {
+			this.isLocal = isLocal;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * An environment the resolver laid variables out in, mapping the slot of
+	 * each variable to its stack slot in the function the environment belongs
+	 * to.
+	 */
+	private static class Frame {
+		final Frame enclosing;
+		final FunctionState function;
+		final int[] slots;
+
+		Frame(Frame enclosing, FunctionState function, int size) {
+			this.enclosing = enclosing;
+			this.function = function;
+			slots = new int[size];
+		}
+	}
+
+	private FunctionState function;
+	private Chunk chunk;
+
+	/**
+	 * The innermost environment, null when compiling code outside of any scope.
+	 */
+	private Frame frame = null;
+
+	/**
+	 * The source line of the code being compiled, updated whenever a node
+	 * carrying a token is compiled.
+	 */
+	private int line = 1;
+
+	/**
+	 * Compiles a program into the chunk of its top-level script.
+	 *
+	 * @param statements The resolved statements of the program
+	 * @return The compiled script
+	 */
+	Chunk compile(List<Stmt> statements) {
+		function = new FunctionState(null, false);
+		chunk = function.chunk;
+		for (Stmt s : statements) {
+			compile(s);
+		}
+		emit(OpCode.NIL);
+		emit(OpCode.RETURN);
+		return chunk;
+	}
+
+	@Override
+	public Void visitBinaryExpr(Binary expr) {
+		compile(expr.left);
+		compile(expr.right);
+		line = expr.operator.line;
+
+		switch (expr.operator.type) {
+			case GREATER -> emit(OpCode.GREATER);
+			case GREATER_EQUAL -> emit(OpCode.GREATER_EQUAL);
+			case LESS -> emit(OpCode.LESS);
+			case LESS_EQUAL -> emit(OpCode.LESS_EQUAL);
+			case EQUAL_EQUAL -> emit(OpCode.EQUAL);
+			case BANG_EQUAL -> emit(OpCode.NOT_EQUAL);
+			case PLUS -> emit(OpCode.ADD);
+			case MINUS -> emit(OpCode.SUBTRACT);
+			case SLASH -> emit(OpCode.DIVIDE);
+			case STAR -> emit(OpCode.MULTIPLY);
+			default -> {
+				// unreachable
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitGroupingExpr(Grouping expr) {
+		compile(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(Literal expr) {
+		if (expr.value == null) {
+			emit(OpCode.NIL);
+		} else if (expr.value.equals(true)) {
+			emit(OpCode.TRUE);
+		} else if (expr.value.equals(false)) {
+			emit(OpCode.FALSE);
+		} else {
+			emit(OpCode.CONSTANT);
+			emitConstant(expr.value);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitLogicalExpr(Logical expr) {
+		compile(expr.left);
+		line = expr.operator.line;
+
+		if (expr.operator.type == TokenType.AND) {
+			int end = emitJump(OpCode.JUMP_IF_FALSE);
+			emit(OpCode.POP);
+			compile(expr.right);
+			patchJump(end);
+		} else {
+			int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+			int end = emitJump(OpCode.JUMP);
+			patchJump(elseJump);
+			emit(OpCode.POP);
+			compile(expr.right);
+			patchJump(end);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(Unary expr) {
+		compile(expr.right);
+		line = expr.operator.line;
+
+		switch (expr.operator.type) {
+			case BANG -> emit(OpCode.NOT);
+			case MINUS -> emit(OpCode.NEGATE);
+			default -> {
+				// unreachable
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(Variable expr) {
+		line = expr.name.line;
+		emitGet(expr, expr.name);
+		return null;
+	}
+
+	@Override
+	public Void visitAssignExpr(Assign expr) {
+		compile(expr.value);
+		line = expr.name.line;
+
+		if (expr.depth != -1) {
+			emitVariable(OpCode.SET_LOCAL, OpCode.SET_UPVALUE, expr.depth, expr.slot);
+		} else {
+			emit(OpCode.SET_GLOBAL);
+			emitSymbol(expr.name);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitCallExpr(Call expr) {
+		compileCall(expr, OpCode.CALL);
+		return null;
+	}
+
+	@Override
+	public Void visitGetExpr(Get expr) {
+		compile(expr.object);
+		line = expr.name.line;
+		emit(OpCode.GET_PROPERTY);
+		emitConstant(expr.name);
+		return null;
+	}
+
+	@Override
+	public Void visitSetExpr(Set expr) {
+		compile(expr.object);
+		compile(expr.value);
+		line = expr.name.line;
+		emit(OpCode.SET_PROPERTY);
+		emitConstant(expr.name);
+		return null;
+	}
+
+	@Override
+	public Void visitThisExpr(This expr) {
+		line = expr.keyword.line;
+		emitGet(expr, expr.keyword);
+		return null;
+	}
+
+	@Override
+	public Void visitSuperExpr(Super expr) {
+		line = expr.method.line;
+		emitGet(expr.receiver, expr.receiver.keyword);
+		emitGet(expr, expr.keyword);
+		emit(OpCode.GET_SUPER);
+		emitConstant(expr.method);
+		return null;
+	}
+
+	@Override
+	public Void visitVarStatement(Var stmt) {
+		if (stmt.initializer != null) {
+			compile(stmt.initializer);
+		} else {
+			emit(OpCode.NIL);
+		}
+		line = stmt.name.line;
+		if (stmt.slot != -1) {
+			// The value stays on the stack as the variable
+			declareLocal(stmt.slot);
+		} else {
+			emit(OpCode.DEFINE_GLOBAL);
+			emitSymbol(stmt.name);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStatement(Expression stmt) {
+		discard(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStatement(Print stmt) {
+		compile(stmt.expression);
+		emit(OpCode.PRINT);
+		return null;
+	}
+
+	@Override
+	public Void visitBlockStatement(Block stmt) {
+		int start = function.localCount;
+		beginFrame(stmt.localCount);
+		for (Stmt s : stmt.statements) {
+			compile(s);
+		}
+		endFrame(stmt.localCount);
+		popLocals(start);
+		return null;
+	}
+
+	@Override
+	public Void visitIfStatement(If stmt) {
+		compile(stmt.condition);
+
+		int thenJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+		compile(stmt.thenBranch);
+
+		int elseJump = emitJump(OpCode.JUMP);
+		patchJump(thenJump);
+		if (stmt.elseBranch != null) {
+			compile(stmt.elseBranch);
+		}
+		patchJump(elseJump);
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStatement(While stmt) {
+		int loopStart = chunk.count;
+		compile(stmt.condition);
+
+		int exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+		compile(stmt.body);
+		emitLoop(loopStart);
+
+		patchJump(exitJump);
+		return null;
+	}
+
+	@Override
+	public Void visitForStatement(For stmt) {
+		int start = function.localCount;
+		beginFrame(stmt.localCount);
+		if (stmt.initializer != null) {
+			compile(stmt.initializer);
+		}
+
+		int loopStart = chunk.count;
+		int exitJump = -1;
+		if (stmt.condition != null) {
+			compile(stmt.condition);
+			exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+		}
+		compile(stmt.body);
+		if (stmt.increment != null) {
+			discard(stmt.increment);
+		}
+		emitLoop(loopStart);
+
+		if (exitJump != -1) {
+			patchJump(exitJump);
+		}
+		endFrame(stmt.localCount);
+		popLocals(start);
+		return null;
+	}
+
+	@Override
+	public Void visitFunctionStatement(Function stmt) {
+		if (stmt.slot != -1) {
+			// Declared before its body so that it can call itself, the closure
+			// lands in the variable's slot
+			declareLocal(stmt.slot);
+		}
+		FunctionState compiled = compileFunction(stmt, false);
+		line = stmt.name.line;
+		emit(OpCode.CLOSURE);
+		emitConstant(stmt);
+		emitUpvalues(compiled);
+		if (stmt.slot == -1) {
+			emit(OpCode.DEFINE_GLOBAL);
+			emitSymbol(stmt.name);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitReturnStatement(Stmt.Return stmt) {
+		line = stmt.keyword.line;
+		if (function.initializer) {
+			emitReceiver();
+		} else if (stmt.value instanceof Call call) {
+			compileCall(call, OpCode.TAIL_CALL);
+		} else if (stmt.value != null) {
+			compile(stmt.value);
+		} else {
+			emit(OpCode.NIL);
+		}
+		emit(OpCode.RETURN);
+		return null;
+	}
+
+	@Override
+	public Void visitClassStatement(Class stmt) {
+		int start = function.localCount;
+		line = stmt.name.line;
+		if (stmt.slot != -1) {
+			// Methods may refer to the class, which is stored once complete
+			emit(OpCode.NIL);
+			declareLocal(stmt.slot);
+		}
+
+		if (stmt.superclass != null) {
+			compile(stmt.superclass);
+			emit(OpCode.INHERIT);
+
+			// The superclass stays on the stack as "super", the only variable of
+			// the environment wrapping the methods
+			beginFrame(1);
+			declareLocal(0);
+		}
+
+		for (Stmt.Function method : stmt.methods) {
+			FunctionState compiled = compileFunction(method, true);
+			emit(OpCode.METHOD);
+			emitConstant(method);
+			emitUpvalues(compiled);
+		}
+
+		line = stmt.name.line;
+		emit(stmt.superclass != null ? OpCode.SUBCLASS : OpCode.CLASS);
+		emitConstant(stmt.name);
+		emitByte(stmt.methods.size(), "Too many methods in one class.");
+
+		if (stmt.slot != -1) {
+			emit(OpCode.SET_LOCAL);
+			emitShort(start, "Too many local variables.");
+			emit(OpCode.POP);
+		} else {
+			emit(OpCode.DEFINE_GLOBAL);
+			emitSymbol(stmt.name);
+		}
+		if (stmt.superclass != null) {
+			endFrame(1);
+			popLocals(start + (stmt.slot != -1 ? 1 : 0));
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitImportStatement(Import stmt) {
+		// Imported modules run before the modules importing them
+		return null;
+	}
+
+	/**
+	 * Compiles the body of a function into its own chunk.
+	 *
+	 * @param declaration The declaration of the function
+	 * @param method      Whether the function is a method
+	 * @return The compiled function, listing the variables it captures
+	 */
+	private FunctionState compileFunction(Stmt.Function declaration, boolean method) {
+		FunctionState enclosing = function;
+		Frame enclosingFrame = frame;
+		function = new FunctionState(enclosing, method && declaration.name.symbol == SymbolTable.INIT);
+		chunk = function.chunk;
+		frame = new Frame(enclosingFrame, function, declaration.localCount);
+
+		// Arguments follow the callee, and "this" follows the parameters in the
+		// method's environment
+		int arity = declaration.params.size();
+		for (int i = 0; i < arity; i++) {
+			declareLocal(i);
+		}
+		if (method) {
+			frame.slots[arity] = 0;
+		}
+
+		for (Stmt s : declaration.body) {
+			compile(s);
+		}
+		if (function.initializer) {
+			emitReceiver();
+		} else {
+			emit(OpCode.NIL);
+		}
+		emit(OpCode.RETURN);
+		declaration.chunk = chunk;
+
+		FunctionState compiled = function;
+		function = enclosing;
+		chunk = enclosing.chunk;
+		frame = enclosingFrame;
+		return compiled;
+	}
+
+	/**
+	 * Compiles a call, its callee followed by its arguments.
+	 *
+	 * @param op Either CALL or TAIL_CALL
+	 */
+	private void compileCall(Call expr, byte op) {
+		compile(expr.callee);
+		for (Expr arg : expr.arguments) {
+			compile(arg);
+		}
+		line = expr.paren.line;
+		emit(op);
+		emitByte(expr.arguments.size(), "Can't have more than 255 arguments.");
+	}
+
+	private void compile(Stmt stmt) {
+		stmt.accept(this);
+	}
+
+	private void compile(Expr expr) {
+		expr.accept(this);
+	}
+
+	/**
+	 * Compiles an expression whose value is discarded. Assignments to locals of
+	 * the function store their value without leaving it on the stack.
+	 */
+	private void discard(Expr expr) {
+		if (expr instanceof Assign assign && assign.depth != -1) {
+			int slot = localSlot(assign.depth, assign.slot);
+			if (slot != -1) {
+				compile(assign.value);
+				line = assign.name.line;
+				emit(OpCode.POP_LOCAL);
+				emitShort(slot, "Too many local variables.");
+				return;
+			}
+		}
+		compile(expr);
+		emit(OpCode.POP);
+	}
+
+	/**
+	 * Enters an environment of the given size, if the resolver gave the scope
+	 * being compiled one.
+	 */
+	private void beginFrame(int size) {
+		if (size > 0) {
+			frame = new Frame(frame, function, size);
+		}
+	}
+
+	/**
+	 * Leaves the environment entered by {@link #beginFrame(int)}.
+	 */
+	private void endFrame(int size) {
+		if (size > 0) {
+			frame = frame.enclosing;
+		}
+	}
+
+	/**
+	 * Declares the local in the next stack slot as the variable the resolver
+	 * put in the given slot of the current environment.
+	 */
+	private void declareLocal(int slot) {
+		if (function.localCount == function.captured.length) {
+			function.captured = Arrays.copyOf(function.captured, function.localCount * 2);
+		}
+		frame.slots[slot] = function.localCount++;
+	}
+
+	/**
+	 * Pops the locals declared since the number of locals was the given one,
+	 * moving the captured ones off the stack.
+	 */
+	private void popLocals(int start) {
+		while (function.localCount > start) {
+			int slot = --function.localCount;
+			emit(function.captured[slot] ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+			function.captured[slot] = false;
+		}
+	}
+
+	/**
+	 * Emits the instruction reading a variable the resolver resolved.
+	 */
+	private void emitGet(Expr.Resolvable expr, Token name) {
+		if (expr.depth != -1) {
+			emitVariable(OpCode.GET_LOCAL, OpCode.GET_UPVALUE, expr.depth, expr.slot);
+		} else {
+			emit(OpCode.GET_GLOBAL);
+			emitSymbol(name);
+		}
+	}
+
+	/**
+	 * Emits the instruction accessing a local variable, at the given depth and
+	 * slot for the resolver. Variables of the function being compiled are on its
+	 * stack, the others are captured.
+	 *
+	 * @param localOp   The instruction accessing a local of the function
+	 * @param upvalueOp The instruction accessing an upvalue of the function
+	 */
+	private void emitVariable(byte localOp, byte upvalueOp, int depth, int slot) {
+		Frame environment = environment(depth);
+		int stackSlot = environment.slots[slot];
+
+		if (environment.function == function) {
+			emit(localOp);
+			emitShort(stackSlot, "Too many local variables.");
+		} else {
+			emit(upvalueOp);
+			emitByte(capture(function, environment.function, stackSlot), "Too many closure variables in function.");
+		}
+	}
+
+	/**
+	 * Returns the stack slot of a local variable at the given depth and slot for
+	 * the resolver, or -1 if it belongs to an enclosing function.
+	 */
+	private int localSlot(int depth, int slot) {
+		Frame environment = environment(depth);
+		return environment.function == function ? environment.slots[slot] : -1;
+	}
+
+	/**
+	 * Returns the environment the given number of environments out of the
+	 * current one.
+	 */
+	private Frame environment(int depth) {
+		Frame environment = frame;
+		for (int i = 0; i < depth; i++) {
+			environment = environment.enclosing;
+		}
+		return environment;
+	}
+
+	/**
+	 * Returns the index of the upvalue of a function capturing a local of an
+	 * enclosing function, adding upvalues to the functions in between as needed.
+	 *
+	 * @param function The function capturing the local
+	 * @param owner    The function the local belongs to
+	 * @param slot     The stack slot of the local in the owner
+	 */
+	private static int capture(FunctionState function, FunctionState owner, int slot) {
+		if (function.enclosing == owner) {
+			owner.captured[slot] = true;
+			return addUpvalue(function, true, slot);
+		}
+		return addUpvalue(function, false, capture(function.enclosing, owner, slot));
+	}
+
+	private static int addUpvalue(FunctionState function, boolean isLocal, int index) {
+		for (int i = 0; i < function.upvalues.size(); i++) {
+			Upvalue upvalue = function.upvalues.get(i);
+			if (upvalue.isLocal == isLocal && upvalue.index == index) {
+				return i;
+			}
+		}
+		function.upvalues.add(new Upvalue(isLocal, index));
+		return function.upvalues.size() - 1;
+	}
+
+	/**
+	 * Emits the operands of a CLOSURE or METHOD instruction describing the
+	 * variables a compiled function captures.
+	 */
+	private void emitUpvalues(FunctionState compiled) {
+		emitByte(compiled.upvalues.size(), "Too many closure variables in function.");
+		for (Upvalue upvalue : compiled.upvalues) {
+			emit(upvalue.isLocal ? (byte) 1 : (byte) 0);
+			emitShort(upvalue.index, null);
+		}
+	}
+
+	/**
+	 * Emits the instruction pushing the receiver of the method being compiled.
+	 */
+	private void emitReceiver() {
+		emit(OpCode.GET_LOCAL);
+		emitShort(0, null);
+	}
+
+	/**
+	 * Emits the symbol of a global variable's name.
+	 */
+	private void emitSymbol(Token name) {
+		emitShort(name.symbol, "Too many global variable names.");
+	}
+
+	private void emit(byte op) {
+		chunk.write(op, line);
+	}
+
+	/**
+	 * Emits a single byte operand, reporting a compile error with the given
+	 * message if the value doesn't fit.
+	 */
+	private void emitByte(int value, String message) {
+		if (value > 0xff) {
+			Lox.error(line, message);
+		}
+		chunk.write((byte) value, line);
+	}
+
+	/**
+	 * Emits a two bytes operand, reporting a compile error with the given message
+	 * if the value doesn't fit.
+	 */
+	private void emitShort(int value, String message) {
+		if (value > 0xffff) {
+			Lox.error(line, message);
+		}
+		chunk.write((byte) ((value >> 8) & 0xff), line);
+		chunk.write((byte) (value & 0xff), line);
+	}
+
+	private void emitConstant(Object value) {
+		emitShort(chunk.addConstant(value), "Too many constants in one chunk.");
+	}
+
+	/**
+	 * Emits a jump instruction with a placeholder offset.
+	 *
+	 * @return The offset of the placeholder to patch with {@link #patchJump(int)}
+	 */
+	private int emitJump(byte op) {
+		emit(op);
+		emitShort(0, null);
+		return chunk.count - 2;
+	}
+
+	/**
+	 * Patches a jump emitted by {@link #emitJump(byte)} to land on the next
+	 * instruction to be emitted.
+	 */
+	private void patchJump(int offset) {
+		int jump = chunk.count - offset - 2;
+		if (jump > 0xffff) {
+			Lox.error(line, "Too much code to jump over.");
+		}
+		chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+		chunk.code[offset + 1] = (byte) (jump & 0xff);
+	}
+
+	/**
+	 * Emits a backward jump to the given loop start.
+	 */
+	private void emitLoop(int loopStart) {
+		emit(OpCode.LOOP);
+		emitShort(chunk.count - loopStart + 2, "Loop body too large.");
+	}
+}
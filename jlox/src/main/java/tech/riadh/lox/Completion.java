@@ -0,0 +1,21 @@
+package tech.riadh.lox;
+
+/**
+ * How the execution of a statement completed.
+ *
+ * A return statement completes with {@link #RETURN} after storing its value in
+ * the interpreter. The statements enclosing it stop and pass that completion
+ * up to the function call, which picks the value up. This replaces unwinding
+ * the Java stack with an exception.
+ */
+enum Completion {
+	NORMAL,
+	RETURN,
+
+	/**
+	 * A return statement returning the result of a call to a Lox function. The
+	 * call is left to the function call that is returning, which runs the callee
+	 * in place of the caller instead of nesting the call on the Java stack.
+	 */
+	TAIL_CALL
+}
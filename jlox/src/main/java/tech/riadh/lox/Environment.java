@@ -1,14 +1,17 @@
 package tech.riadh.lox;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Environment stores bindings of variables to values.
+ *
+ * The global environment binds variables by the symbol of their name since
+ * globals can be referenced before they are declared. Local environments store their values
+ * in an array indexed by the slots the {@link Resolver} assigned to each
+ * variable declaration.
  */
 class Environment {
 	final Environment enclosing;
-	private final Map<String, Object> values = new HashMap<>();
+	private final SymbolMap<Object> globals;
+	private final Object[] values;
 
 	/**
 	 * Constructs an environment without an enclosing one, this is used for the
@@ -16,102 +19,130 @@ class Environment {
 	 */
 	Environment() {
 		enclosing = null;
+		globals = new SymbolMap<>();
+		values = null;
 	}
 
 	/**
 	 * Constructs an environment given the enclosing one, which creates a chain of
 	 * scopes going from the outermost (global) to the innermost.
+	 *
+	 * @param enclosing The enclosing environment
+	 * @param size      The number of local variables declared in this scope
 	 */
-	Environment(Environment enclosing) {
+	Environment(Environment enclosing, int size) {
 		this.enclosing = enclosing;
+		globals = null;
+		values = new Object[size];
+	}
+
+	/**
+	 * Returns the global variables by symbol, or null for a local environment.
+	 */
+	SymbolMap<Object> globals() {
+		return globals;
+	}
+
+	/**
+	 * Returns the local variables by slot, or null for the global environment.
+	 */
+	Object[] values() {
+		return values;
 	}
 
 	/**
-	 * Defines a variable.
+	 * Defines a global variable.
 	 *
 	 * @param name  The name of the variable
 	 * @param value The value of the variable
 	 */
 	void define(String name, Object value) {
-		values.put(name, value);
+		globals.put(SymbolTable.intern(name), value);
+	}
+
+	/**
+	 * Defines a global variable.
+	 *
+	 * @param name  The variable name token
+	 * @param value The value of the variable
+	 */
+	void define(Token name, Object value) {
+		globals.put(name.symbol, value);
+	}
+
+	/**
+	 * Defines a local variable.
+	 *
+	 * @param slot  The slot of the variable in this environment
+	 * @param value The value of the variable
+	 */
+	void define(int slot, Object value) {
+		values[slot] = value;
 	}
 
 	/**
-	 * Returns the value of the variable if it exists, otherwise throws a
+	 * Returns the value of the global variable if it exists, otherwise throws a
 	 * runtime error.
-	 * 
+	 *
 	 * @param name the variable token
 	 * @return the value of the variable
 	 * @throws RuntimeError If the variable does not exist
 	 */
 	Object get(Token name) {
-		if (values.containsKey(name.lexeme)) {
-			return values.get(name.lexeme);
+		if (globals.containsKey(name.symbol)) {
+			return globals.get(name.symbol);
 		}
 
-		// If the variable is not found, we'll recursively go up and try enclosing
-		// environments
-		if (enclosing != null) {
-			return enclosing.get(name);
-		}
-
-		throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+		throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'.");
 	}
 
 	/**
 	 * Returns the value of the variable at a given distance of enclosing
 	 * environments.
-	 * 
+	 *
 	 * @param distance The distance to go up before getting the value of the
 	 *                 variable.
-	 * @param name     The name of the variable.
+	 * @param slot     The slot of the variable.
 	 * @return The value of the variable
 	 */
-	Object getAt(int distance, String name) {
-		return ancestor(distance).values.get(name);
+	Object getAt(int distance, int slot) {
+		return ancestor(distance).values[slot];
 	}
 
 	/**
-	 * Assigns a value to an existing variable. Unlike
+	 * Assigns a value to an existing global variable. Unlike
 	 * {@link #define(String, Object) Define}, this method is not allowed to create
 	 * a new variable.
-	 * 
+	 *
 	 * @param name  The variable name token
 	 * @param value The value to be assigned to the variable
 	 * @throws RuntimeError If the variable does not already exist in the values map
 	 */
 	void assign(Token name, Object value) {
-		if (values.containsKey(name.lexeme)) {
-			values.put(name.lexeme, value);
+		if (globals.containsKey(name.symbol)) {
+			globals.put(name.symbol, value);
 			return;
 		}
 
-		// If the variable is not found, we'll recursively go up and try enclosing
-		// environments
-		if (enclosing != null) {
-			enclosing.assign(name, value);
-			return;
-		}
-
-		throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+		throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'.");
 	}
 
 	/**
-	 * Assigns a new value to a variable with the given name at the given distance
+	 * Assigns a new value to a variable in the given slot at the given distance
 	 * far from the current environment.
 	 *
 	 * @param distance The distance to go up before assigning the variable.
-	 * @param name     The variable name.
+	 * @param slot     The slot of the variable.
 	 * @param value    The value to assign.
 	 */
-	void assignAt(int distance, Token name, Object value) {
-		ancestor(distance).values.put(name.lexeme, value);
+	void assignAt(int distance, int slot, Object value) {
+		ancestor(distance).values[slot] = value;
 	}
 
 	/**
 	 * Returns the ancestor of the current environment that is a given distance away
 	 * from the current one.
-	 * 
+	 *
 	 * @param distance The distance to go up from the current environment
 	 * @return The distance-th ancestor environment
 	 */
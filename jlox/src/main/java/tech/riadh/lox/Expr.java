@@ -32,11 +32,34 @@ abstract class Expr {
 
 	abstract <R> R accept(Visitor<R> visitor);
 
+	/**
+	 * Base class of expressions referring to a variable by name. The resolver
+	 * fills in where the variable lives so that the interpreter can reach its
+	 * value by index instead of looking it up by name.
+	 */
+	abstract static class Resolvable extends Expr {
+		/**
+		 * Number of scopes between the expression and the variable declaration, or
+		 * -1 if the variable is global.
+		 */
+		int depth = -1;
+
+		/**
+		 * Index of the variable in the scope that declares it.
+		 */
+		int slot;
+	}
+
 	static class Binary extends Expr {
 		final Expr left;
 		final Token operator;
 		final Expr right;
 
+		/**
+		 * The version of the operation the interpreter runs for this node.
+		 */
+		Specialization specialization = Specialization.UNINITIALIZED;
+
 		Binary(Expr left, Token operator, Expr right) {
 			this.left = left;
 			this.operator = operator;
@@ -107,7 +130,7 @@ abstract class Expr {
 		}
 	}
 
-	static class Variable extends Expr {
+	static class Variable extends Resolvable {
 		final Token name;
 
 		Variable(Token name) {
@@ -120,11 +143,16 @@ abstract class Expr {
 		}
 	}
 
-	static class Assign extends Expr {
+	static class Assign extends Resolvable {
 
 		final Token name;
 		final Expr value;
 
+		/**
+		 * Whether the assigned variable is a local that is never read.
+		 */
+		boolean deadStore;
+
 		Assign(Token name, Expr value) {
 			this.name = name;
 			this.value = value;
@@ -157,6 +185,14 @@ abstract class Expr {
 		final Expr object;
 		final Token name;
 
+		/**
+		 * Inline cache for the last shape seen: the slot of the field, or the method
+		 * of the class if the shape has no such field.
+		 */
+		Shape shape;
+		int slot;
+		LoxFunction method;
+
 		Get(Expr object, Token name) {
 			this.object = object;
 			this.name = name;
@@ -173,6 +209,14 @@ abstract class Expr {
 		final Token name;
 		final Expr value;
 
+		/**
+		 * Inline cache: the slot of the field in instances of the last shape seen,
+		 * and the shape they move to when the field is new to them, otherwise null.
+		 */
+		Shape shape;
+		Shape transition;
+		int slot;
+
 		Set(Expr object, Token name, Expr value) {
 			this.object = object;
 			this.name = name;
@@ -185,7 +229,7 @@ abstract class Expr {
 		}
 	}
 
-	static class This extends Expr {
+	static class This extends Resolvable {
 		final Token keyword;
 
 		This(Token keyword) {
@@ -198,13 +242,19 @@ abstract class Expr {
 		}
 	}
 
-	static class Super extends Expr {
+	static class Super extends Resolvable {
 		final Token keyword;
 		final Token method;
 
+		/**
+		 * The "this" the superclass method gets called on.
+		 */
+		final This receiver;
+
 		Super(Token keyword, Token method) {
 			this.keyword = keyword;
 			this.method = method;
+			this.receiver = new This(new Token(TokenType.THIS, "this", null, keyword.line));
 		}
 
 		@Override
@@ -1,9 +1,6 @@
 package tech.riadh.lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import tech.riadh.lox.Expr.Assign;
 import tech.riadh.lox.Expr.Binary;
@@ -19,18 +16,59 @@ import tech.riadh.lox.Expr.Unary;
 import tech.riadh.lox.Expr.Variable;
 import tech.riadh.lox.Stmt.Block;
 import tech.riadh.lox.Stmt.Class;
+import tech.riadh.lox.Stmt.For;
 import tech.riadh.lox.Stmt.Function;
 import tech.riadh.lox.Stmt.If;
+import tech.riadh.lox.Stmt.Import;
 import tech.riadh.lox.Stmt.Var;
 import tech.riadh.lox.Stmt.While;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
 
-	private final Map<Expr, Integer> locals = new HashMap<>();
 	final Environment globals = new Environment();
 	private Environment environment = globals;
 
+	/**
+	 * The value of the return statement being propagated, see {@link Completion}.
+	 */
+	private Object returnValue = null;
+
+	/**
+	 * The function, environment and receiver of the tail call being propagated.
+	 */
+	LoxFunction tailFunction = null;
+	Environment tailEnvironment = null;
+	LoxInstance tailReceiver = null;
+
+	/**
+	 * Compiles hot functions, or null when running with the tree-walker only.
+	 */
+	Jit jit = null;
+
+	/**
+	 * Measures the program when running with --profile, otherwise null.
+	 */
+	Profiler profiler = null;
+
+	/**
+	 * The call stack sampled when running with --sample, otherwise null.
+	 */
+	Sampler sampler = null;
+
+	/**
+	 * Number of environments created for blocks and loops, which tests read to
+	 * check which scopes get one at runtime. Calls aren't counted.
+	 */
+	long scopeEnvironments = 0;
+
 	Interpreter() {
+		defineNatives(globals);
+	}
+
+	/**
+	 * Defines the native functions in the given global environment.
+	 */
+	static void defineNatives(Environment globals) {
 		globals.define("clock", new LoxCallable() {
 			@Override
 			public int arity() {
@@ -38,7 +76,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			}
 
 			@Override
-			public Object call(Interpreter interpreter, List<Object> arguments) {
+			public Object call(Interpreter interpreter, Object[] arguments) {
+				return call0(interpreter);
+			}
+
+			@Override
+			public Object call0(Interpreter interpreter) {
 				return (double) System.currentTimeMillis() / 1000.0;
 			}
 
@@ -51,9 +94,212 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Object visitBinaryExpr(Binary expr) {
+		if (expr.specialization.isArithmetic()) {
+			// Box only the result of the whole numeric subtree
+			try {
+				return evaluateDouble(expr);
+			} catch (NotANumber e) {
+				return e.value;
+			}
+		}
+		if (expr.specialization.isComparison()) {
+			return compareNumbers(expr);
+		}
+
 		Object left = evaluate(expr.left);
 		Object right = evaluate(expr.right);
+		return binary(expr, left, right);
+	}
 
+	/**
+	 * Thrown when an expression evaluated as a double turns out not to be a
+	 * number. It carries the value so the caller can carry on with the generic
+	 * evaluation without evaluating the expression again.
+	 */
+	private static class NotANumber extends RuntimeException {
+		final Object value;
+
+		NotANumber(Object value) {
+			super(null, null, false, false);
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Evaluates an expression expected to produce a number, without boxing the
+	 * intermediate results of arithmetic nodes specialized for numbers.
+	 *
+	 * @param expr The expression to evaluate
+	 * @return The number the expression evaluates to
+	 * @throws NotANumber If the expression evaluates to something else
+	 */
+	private double evaluateDouble(Expr expr) {
+		if (expr instanceof Binary binary && binary.specialization.isArithmetic()) {
+			double left;
+			try {
+				left = evaluateDouble(binary.left);
+			} catch (NotANumber e) {
+				return toDouble(binary(binary, e.value, evaluate(binary.right)));
+			}
+			double right;
+			try {
+				right = evaluateDouble(binary.right);
+			} catch (NotANumber e) {
+				return toDouble(binary(binary, left, e.value));
+			}
+
+			switch (binary.specialization) {
+				case ADD_NUMBERS:
+					return left + right;
+				case SUBTRACT_NUMBERS:
+					return left - right;
+				case MULTIPLY_NUMBERS:
+					return left * right;
+				case DIVIDE_NUMBERS:
+					return left / right;
+				default:
+					// The node got generic while evaluating its operands
+					return toDouble(binary(binary, left, right));
+			}
+		}
+		if (expr instanceof Literal literal && literal.value instanceof Double value) {
+			return value;
+		}
+		if (expr instanceof Grouping grouping) {
+			return evaluateDouble(grouping.expression);
+		}
+		if (expr instanceof Unary unary && unary.operator.type == TokenType.MINUS) {
+			try {
+				return -evaluateDouble(unary.right);
+			} catch (NotANumber e) {
+				return toDouble(unary(unary, e.value));
+			}
+		}
+
+		return toDouble(evaluate(expr));
+	}
+
+	private static double toDouble(Object value) {
+		if (value instanceof Double) {
+			return (double) value;
+		}
+		throw new NotANumber(value);
+	}
+
+	/**
+	 * Evaluates a comparison node specialized for numbers, with unboxed operands.
+	 */
+	private Object compareNumbers(Binary expr) {
+		double left;
+		try {
+			left = evaluateDouble(expr.left);
+		} catch (NotANumber e) {
+			return binary(expr, e.value, evaluate(expr.right));
+		}
+		double right;
+		try {
+			right = evaluateDouble(expr.right);
+		} catch (NotANumber e) {
+			return binary(expr, left, e.value);
+		}
+
+		switch (expr.specialization) {
+			case GREATER_NUMBERS:
+				return left > right;
+			case GREATER_EQUAL_NUMBERS:
+				return left >= right;
+			case LESS_NUMBERS:
+				return left < right;
+			case LESS_EQUAL_NUMBERS:
+				return left <= right;
+			case EQUAL_NUMBERS:
+				return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+			case NOT_EQUAL_NUMBERS:
+				return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+			default:
+				return binary(expr, left, right);
+		}
+	}
+
+	/**
+	 * Applies a binary operation to its evaluated operands.
+	 */
+	Object binary(Binary expr, Object left, Object right) {
+		if (expr.specialization == Specialization.UNINITIALIZED) {
+			expr.specialization = specialize(expr.operator.type, left, right);
+		}
+
+		if (left instanceof Double && right instanceof Double) {
+			double l = (double) left;
+			double r = (double) right;
+			switch (expr.specialization) {
+				case ADD_NUMBERS:
+					return l + r;
+				case SUBTRACT_NUMBERS:
+					return l - r;
+				case MULTIPLY_NUMBERS:
+					return l * r;
+				case DIVIDE_NUMBERS:
+					return l / r;
+				case GREATER_NUMBERS:
+					return l > r;
+				case GREATER_EQUAL_NUMBERS:
+					return l >= r;
+				case LESS_NUMBERS:
+					return l < r;
+				case LESS_EQUAL_NUMBERS:
+					return l <= r;
+				case EQUAL_NUMBERS:
+					// Same as Double.equals used by isEqual
+					return Double.doubleToLongBits(l) == Double.doubleToLongBits(r);
+				case NOT_EQUAL_NUMBERS:
+					return Double.doubleToLongBits(l) != Double.doubleToLongBits(r);
+				default:
+					break;
+			}
+		} else if (expr.specialization == Specialization.CONCAT_STRINGS && Rope.isString(left)
+				&& Rope.isString(right)) {
+			return Rope.concat(left, right);
+		}
+
+		if (expr.specialization != Specialization.GENERIC) {
+			// The operands don't have the types the node was specialized for
+			expr.specialization = Specialization.GENERIC;
+		}
+		return genericBinary(expr, left, right);
+	}
+
+	/**
+	 * Picks the specialized version of a binary operation for the types of its
+	 * first operands.
+	 */
+	private static Specialization specialize(TokenType operator, Object left, Object right) {
+		if (Rope.isString(left) && Rope.isString(right) && operator == TokenType.PLUS) {
+			return Specialization.CONCAT_STRINGS;
+		}
+		if (!(left instanceof Double && right instanceof Double)) {
+			return Specialization.GENERIC;
+		}
+
+		return switch (operator) {
+			case PLUS -> Specialization.ADD_NUMBERS;
+			case MINUS -> Specialization.SUBTRACT_NUMBERS;
+			case STAR -> Specialization.MULTIPLY_NUMBERS;
+			case SLASH -> Specialization.DIVIDE_NUMBERS;
+			case GREATER -> Specialization.GREATER_NUMBERS;
+			case GREATER_EQUAL -> Specialization.GREATER_EQUAL_NUMBERS;
+			case LESS -> Specialization.LESS_NUMBERS;
+			case LESS_EQUAL -> Specialization.LESS_EQUAL_NUMBERS;
+			case EQUAL_EQUAL -> Specialization.EQUAL_NUMBERS;
+			case BANG_EQUAL -> Specialization.NOT_EQUAL_NUMBERS;
+			default -> Specialization.GENERIC;
+		};
+	}
+
+	/**
+	 * Runs a binary operation checking the types of its operands.
+	 */
+	private Object genericBinary(Binary expr, Object left, Object right) {
 		return switch (expr.operator.type) {
 			case GREATER -> {
 				checkNumberOperands(expr.operator, left, right);
@@ -74,8 +320,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			case EQUAL_EQUAL -> isEqual(left, right);
 			case BANG_EQUAL -> !isEqual(left, right);
 			case PLUS -> {
-				if (left instanceof String && right instanceof String) {
-					yield (String) left + (String) right;
+				if (Rope.isString(left) && Rope.isString(right)) {
+					yield Rope.concat(left, right);
 				}
 				if (left instanceof Double && right instanceof Double) {
 					yield (double) left + (double) right;
@@ -127,8 +373,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Object visitUnaryExpr(Unary expr) {
-		Object right = evaluate(expr.right);
+		return unary(expr, evaluate(expr.right));
+	}
 
+	/**
+	 * Applies a unary operation to its evaluated operand.
+	 */
+	Object unary(Unary expr, Object right) {
 		switch (expr.operator.type) {
 			case BANG -> {
 				return !isTruthy(right);
@@ -149,10 +400,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return lookUpVariable(expr.name, expr);
 	}
 
-	private Object lookUpVariable(Token name, Expr expr) {
-		Integer distance = locals.get(expr);
-		if (distance != null) {
-			return environment.getAt(distance, name.lexeme);
+	private Object lookUpVariable(Token name, Expr.Resolvable expr) {
+		if (expr.depth != -1) {
+			return environment.getAt(expr.depth, expr.slot);
 		}
 		return globals.get(name);
 	}
@@ -161,9 +411,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	public Object visitAssignExpr(Assign expr) {
 		Object value = evaluate(expr.value);
 
-		Integer distance = locals.get(expr);
-		if (distance != null) {
-			environment.assignAt(distance, expr.name, value);
+		if (expr.depth != -1) {
+			environment.assignAt(expr.depth, expr.slot, value);
 		} else {
 			globals.assign(expr.name, value);
 		}
@@ -172,44 +421,322 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Object visitCallExpr(Call expr) {
+		try {
+			return evaluateCall(expr);
+		} catch (StackOverflowError e) {
+			throw new RuntimeError(expr.paren, "Stack overflow.");
+		}
+	}
+
+	private Object evaluateCall(Call expr) {
+		if (expr.callee instanceof Get) {
+			Get get = (Get) expr.callee;
+			return invoke(expr, get, evaluate(get.object));
+		}
+		if (expr.callee instanceof Super) {
+			return invokeSuper(expr, (Super) expr.callee);
+		}
+
 		Object callee = evaluate(expr.callee);
+		List<Expr> arguments = expr.arguments;
+		// Arguments are evaluated left to right before the callee is checked
+		switch (arguments.size()) {
+			case 0:
+				return call0(expr, callee);
+			case 1:
+				return call1(expr, callee, evaluate(arguments.get(0)));
+			case 2:
+				return call2(expr, callee, evaluate(arguments.get(0)), evaluate(arguments.get(1)));
+			case 3:
+				return call3(expr, callee, evaluate(arguments.get(0)), evaluate(arguments.get(1)),
+						evaluate(arguments.get(2)));
+			case 4:
+				return call4(expr, callee, evaluate(arguments.get(0)), evaluate(arguments.get(1)),
+						evaluate(arguments.get(2)), evaluate(arguments.get(3)));
+			default:
+				return call(expr, callee, arguments(expr));
+		}
+	}
 
-		List<Object> args = new ArrayList<>();
-		for (Expr arg : expr.arguments) {
-			args.add(evaluate(arg));
+	private Object[] arguments(Call expr) {
+		Object[] args = new Object[expr.arguments.size()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = evaluate(expr.arguments.get(i));
 		}
+		return args;
+	}
 
+	/**
+	 * Calls an evaluated callee with its evaluated arguments. Calls with up to
+	 * four arguments go through the matching fixed-arity entry point.
+	 */
+	Object call0(Call expr, Object callee) {
+		return callable(expr, callee, 0).call0(this);
+	}
+
+	Object call1(Call expr, Object callee, Object a) {
+		return callable(expr, callee, 1).call1(this, a);
+	}
+
+	Object call2(Call expr, Object callee, Object a, Object b) {
+		return callable(expr, callee, 2).call2(this, a, b);
+	}
+
+	Object call3(Call expr, Object callee, Object a, Object b, Object c) {
+		return callable(expr, callee, 3).call3(this, a, b, c);
+	}
+
+	Object call4(Call expr, Object callee, Object a, Object b, Object c, Object d) {
+		return callable(expr, callee, 4).call4(this, a, b, c, d);
+	}
+
+	Object call(Call expr, Object callee, Object[] args) {
+		return callable(expr, callee, args.length).call(this, args);
+	}
+
+	/**
+	 * Checks that an evaluated callee can be called with the given number of
+	 * arguments.
+	 */
+	private static LoxCallable callable(Call expr, Object callee, int argCount) {
 		if (!(callee instanceof LoxCallable)) {
 			throw new RuntimeError(expr.paren, "Can only call functions or classes.");
 		}
 
 		LoxCallable function = (LoxCallable) callee;
-		if (args.size() != function.arity()) {
+		checkArity(expr, function, argCount);
+		return function;
+	}
+
+	private static void checkArity(Call expr, LoxCallable function, int argCount) {
+		if (argCount != function.arity()) {
 			throw new RuntimeError(expr.paren,
-					"Exptected " + function.arity() + " arguments but got " + args.size() + ".");
+					"Exptected " + function.arity() + " arguments but got " + argCount + ".");
+		}
+	}
+
+	/**
+	 * Calls a property of an evaluated object. Methods are called with the
+	 * object as receiver instead of being bound to it first.
+	 */
+	private Object invoke(Call expr, Get get, Object object) {
+		if (!(object instanceof LoxInstance)) {
+			return call(expr, getProperty(get, object), arguments(expr));
+		}
+
+		LoxInstance instance = (LoxInstance) object;
+		if (instance.shape != get.shape) {
+			cacheProperty(get, instance);
 		}
-		return function.call(this, args);
+
+		LoxFunction method = get.method;
+		if (method == null) {
+			return call(expr, instance.fields[get.slot], arguments(expr));
+		}
+		return invokeMethod(expr, method, instance);
+	}
+
+	/**
+	 * Calls a superclass method on "this" without binding it first.
+	 */
+	private Object invokeSuper(Call expr, Super callee) {
+		LoxFunction method = findSuperMethod(callee, environment);
+		LoxInstance object = (LoxInstance) lookUpVariable(callee.receiver.keyword, callee.receiver);
+		return invokeMethod(expr, method, object);
+	}
+
+	/**
+	 * Calls a method with a receiver, evaluating the arguments right into the
+	 * environment of the call.
+	 */
+	private Object invokeMethod(Call expr, LoxFunction method, LoxInstance receiver) {
+		return method.run(this, frame(expr, method, receiver), receiver);
+	}
+
+	/**
+	 * Creates the environment for a call of a Lox function, with the arguments
+	 * evaluated right into their slots.
+	 */
+	private Environment frame(Call expr, LoxFunction function, LoxInstance receiver) {
+		List<Expr> arguments = expr.arguments;
+		if (arguments.size() != function.arity()) {
+			arguments(expr);
+			checkArity(expr, function, arguments.size());
+		}
+
+		Environment env = function.frame(receiver);
+		for (int i = 0; i < arguments.size(); i++) {
+			env.define(i, evaluate(arguments.get(i)));
+		}
+		return env;
+	}
+
+	/**
+	 * Evaluates a call in return position. Calls to Lox functions are not run
+	 * here but handed over to the function call that is returning, see
+	 * {@link Completion#TAIL_CALL}. Other callees are called right away.
+	 */
+	private Completion tailCall(Call expr) {
+		Object callee;
+		LoxInstance receiver = null;
+		if (expr.callee instanceof Get) {
+			Get get = (Get) expr.callee;
+			Object object = evaluate(get.object);
+			callee = tailCallee(get, object);
+			receiver = methodReceiver(get, object);
+		} else if (expr.callee instanceof Super) {
+			Super superExpr = (Super) expr.callee;
+			callee = findSuperMethod(superExpr, environment);
+			receiver = (LoxInstance) lookUpVariable(superExpr.receiver.keyword, superExpr.receiver);
+		} else {
+			callee = evaluate(expr.callee);
+		}
+
+		if (!(callee instanceof LoxFunction)) {
+			returnValue = call(expr, callee, arguments(expr));
+			return Completion.RETURN;
+		}
+
+		LoxFunction function = (LoxFunction) callee;
+		if (receiver == null) {
+			receiver = function.receiver;
+		}
+		tailEnvironment = frame(expr, function, receiver);
+		tailFunction = function;
+		tailReceiver = receiver;
+		return Completion.TAIL_CALL;
+	}
+
+	/**
+	 * Looks up the property called in return position, without binding methods.
+	 *
+	 * @return The method or the value of the field
+	 */
+	Object tailCallee(Get get, Object object) {
+		if (!(object instanceof LoxInstance)) {
+			return getProperty(get, object);
+		}
+
+		LoxInstance instance = (LoxInstance) object;
+		if (instance.shape != get.shape) {
+			cacheProperty(get, instance);
+		}
+		return get.method != null ? get.method : instance.fields[get.slot];
+	}
+
+	/**
+	 * Returns the receiver of the property {@link #tailCallee(Get, Object)} just
+	 * looked up, or null if it's not a method.
+	 */
+	static LoxInstance methodReceiver(Get get, Object object) {
+		return object instanceof LoxInstance && get.method != null ? (LoxInstance) object : null;
+	}
+
+	/**
+	 * Calls a callee in return position from code compiled by the {@link Jit},
+	 * with its evaluated arguments. Like {@link #tailCall(Call)}, calls to Lox
+	 * functions are handed over to the returning function call, which is told so
+	 * by {@link Jit#TAIL_CALL} as return value.
+	 *
+	 * @param receiver The receiver of a method, or null
+	 * @return The value the callee returned, or {@link Jit#TAIL_CALL}
+	 */
+	Object tailCall(Call expr, Object callee, LoxInstance receiver, Object[] args) {
+		if (!(callee instanceof LoxFunction)) {
+			return call(expr, callee, args);
+		}
+
+		LoxFunction function = (LoxFunction) callee;
+		checkArity(expr, function, args.length);
+		if (receiver == null) {
+			receiver = function.receiver;
+		}
+		Environment env = function.frame(receiver);
+		for (int i = 0; i < args.length; i++) {
+			env.define(i, args[i]);
+		}
+		tailEnvironment = env;
+		tailFunction = function;
+		tailReceiver = receiver;
+		return Jit.TAIL_CALL;
 	}
 
 	@Override
 	public Object visitGetExpr(Get expr) {
-		Object object = evaluate(expr.object);
+		return getProperty(expr, evaluate(expr.object));
+	}
 
+	/**
+	 * Gets a property of an evaluated object.
+	 */
+	Object getProperty(Get expr, Object object) {
 		if (object instanceof LoxInstance) {
-			return ((LoxInstance) object).get(expr.name);
+			LoxInstance instance = (LoxInstance) object;
+			if (instance.shape != expr.shape) {
+				cacheProperty(expr, instance);
+			}
+
+			if (expr.method != null) {
+				return expr.method.bind(instance);
+			}
+			return instance.fields[expr.slot];
 		}
 
 		throw new RuntimeError(expr.name, "Only instances have properties.");
 	}
 
+	/**
+	 * Fills the inline cache of a property access site for the shape of an
+	 * instance, with either the slot of the field or the method of its class.
+	 *
+	 * @throws RuntimeError If the instance has no such property
+	 */
+	private static void cacheProperty(Get expr, LoxInstance instance) {
+		int slot = instance.shape.slotOf(expr.name.symbol);
+		LoxFunction method = null;
+		if (slot == -1) {
+			method = instance.loxClass.findMethod(expr.name.symbol);
+			if (method == null) {
+				throw new RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme() + "'.");
+			}
+		}
+
+		expr.shape = instance.shape;
+		expr.slot = slot;
+		expr.method = method;
+	}
+
 	@Override
 	public Object visitSetExpr(Set expr) {
-		Object object = evaluate(expr.object);
+		LoxInstance object = fieldOwner(expr, evaluate(expr.object));
+		return setField(expr, object, evaluate(expr.value));
+	}
+
+	/**
+	 * Sets a field of an instance, going through the inline cache of the site.
+	 */
+	Object setField(Set expr, LoxInstance instance, Object value) {
+		if (instance.shape != expr.shape) {
+			Shape shape = instance.shape;
+			int slot = shape.slotOf(expr.name.symbol);
+			expr.transition = slot == -1 ? shape.withField(expr.name.symbol) : null;
+			expr.slot = slot == -1 ? shape.size() : slot;
+			expr.shape = shape;
+		}
+
+		if (expr.transition != null) {
+			instance.reshape(expr.transition);
+		}
+		instance.fields[expr.slot] = value;
+		return value;
+	}
 
+	/**
+	 * Checks that an evaluated object can have its fields set.
+	 */
+	LoxInstance fieldOwner(Set expr, Object object) {
 		if (object instanceof LoxInstance) {
-			Object value = evaluate(expr.value);
-			((LoxInstance) object).set(expr.name, value);
-			return value;
+			return (LoxInstance) object;
 		}
 
 		throw new RuntimeError(expr.name, "Only instances have fields.");
@@ -222,82 +749,198 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Object visitSuperExpr(Super expr) {
-		int distance = locals.get(expr);
-		LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
-		LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
-		LoxFunction method = superclass.findMethod(expr.method.lexeme);
+		return superMethod(expr, environment);
+	}
+
+	/**
+	 * Looks up a superclass method and binds it to "this", both found from the
+	 * given environment.
+	 */
+	Object superMethod(Super expr, Environment environment) {
+		LoxInstance object = (LoxInstance) environment.getAt(expr.receiver.depth, expr.receiver.slot);
+		return findSuperMethod(expr, environment).bind(object);
+	}
+
+	static LoxFunction findSuperMethod(Super expr, Environment environment) {
+		// "super" is the only variable of its scope
+		LoxClass superclass = (LoxClass) environment.getAt(expr.depth, 0);
+		LoxFunction method = superclass.findMethod(expr.method.symbol);
 
 		if (method == null) {
-			throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+			throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme() + "'.");
 		}
-
-		return method.bind(object);
+		return method;
 	}
 
 	@Override
-	public Void visitVarStatement(Var stmt) {
+	public Completion visitVarStatement(Var stmt) {
 		Object value = null;
 		if (stmt.initializer != null) {
 			value = evaluate(stmt.initializer);
 		}
-		environment.define(stmt.name.lexeme, value);
-		return null;
+		define(stmt.slot, stmt.name, value);
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitExpressionStatement(Stmt.Expression stmt) {
+	public Completion visitExpressionStatement(Stmt.Expression stmt) {
 		evaluate(stmt.expression);
-		return null;
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitIfStatement(If stmt) {
+	public Completion visitIfStatement(If stmt) {
 		if (isTruthy(evaluate(stmt.condition))) {
-			execute(stmt.thenBranch);
+			return execute(stmt.thenBranch);
 		} else if (stmt.elseBranch != null) {
-			execute(stmt.elseBranch);
+			return execute(stmt.elseBranch);
 		}
-		return null;
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitWhileStatement(While stmt) {
+	public Completion visitWhileStatement(While stmt) {
 		while (isTruthy(evaluate(stmt.condition))) {
-			execute(stmt.body);
+			Completion completion = execute(stmt.body);
+			if (completion != Completion.NORMAL) {
+				return completion;
+			}
+			if (jit != null && stmt.function != null) {
+				jit.countBackedge(stmt.function);
+			}
+		}
+		return Completion.NORMAL;
+	}
+
+	@Override
+	public Completion visitForStatement(For stmt) {
+		if (stmt.localCount == 0) {
+			return executeLoop(stmt);
+		}
+		Environment previous = environment;
+		try {
+			environment = new Environment(environment, stmt.localCount);
+			scopeEnvironments++;
+			return executeLoop(stmt);
+		} finally {
+			environment = previous;
+		}
+	}
+
+	/**
+	 * Runs a for loop in the environment holding its loop variable.
+	 */
+	private Completion executeLoop(For stmt) {
+		if (stmt.initializer != null) {
+			execute(stmt.initializer);
+		}
+		if (stmt.counter != null) {
+			return executeCountedLoop(stmt);
+		}
+
+		while (stmt.condition == null || isTruthy(evaluate(stmt.condition))) {
+			Completion completion = execute(stmt.body);
+			if (completion != Completion.NORMAL) {
+				return completion;
+			}
+			if (jit != null && stmt.function != null) {
+				jit.countBackedge(stmt.function);
+			}
+			if (stmt.increment != null) {
+				evaluate(stmt.increment);
+			}
+		}
+		return Completion.NORMAL;
+	}
+
+	/**
+	 * Runs a loop counting its variable up or down by a constant step. While the
+	 * counter and its bound are numbers, they are compared and the counter is
+	 * stepped directly instead of evaluating the condition and increment
+	 * expressions. Otherwise the loop falls back to the generic operations so that
+	 * the same runtime errors are reported.
+	 */
+	private Completion executeCountedLoop(For stmt) {
+		Binary condition = (Binary) stmt.condition;
+		int slot = stmt.counter.slot;
+		while (true) {
+			Object counter = environment.getAt(0, slot);
+			Object bound = evaluate(condition.right);
+			boolean test;
+			if (counter instanceof Double && bound instanceof Double) {
+				double value = (double) counter;
+				double limit = (double) bound;
+				test = switch (condition.operator.type) {
+					case LESS -> value < limit;
+					case LESS_EQUAL -> value <= limit;
+					case GREATER -> value > limit;
+					default -> value >= limit;
+				};
+			} else {
+				test = isTruthy(binary(condition, counter, bound));
+			}
+			if (!test) {
+				return Completion.NORMAL;
+			}
+
+			Completion completion = execute(stmt.body);
+			if (completion != Completion.NORMAL) {
+				return completion;
+			}
+			if (jit != null && stmt.function != null) {
+				jit.countBackedge(stmt.function);
+			}
+
+			counter = environment.getAt(0, slot);
+			if (counter instanceof Double) {
+				environment.assignAt(0, slot, (double) counter + stmt.step);
+			} else {
+				evaluate(stmt.increment);
+			}
 		}
-		return null;
 	}
 
 	@Override
-	public Void visitPrintStatement(Stmt.Print stmt) {
+	public Completion visitPrintStatement(Stmt.Print stmt) {
 		Object value = evaluate(stmt.expression);
 		System.out.println(stringify(value));
-		return null;
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitBlockStatement(Block stmt) {
-		executeBlock(stmt.statements, new Environment(environment));
-		return null;
+	public Completion visitBlockStatement(Block stmt) {
+		if (stmt.localCount == 0) {
+			// The resolver found no variable needing a scope of its own
+			for (Stmt s : stmt.statements) {
+				Completion completion = execute(s);
+				if (completion != Completion.NORMAL) {
+					return completion;
+				}
+			}
+			return Completion.NORMAL;
+		}
+		scopeEnvironments++;
+		return executeBlock(stmt.statements, new Environment(environment, stmt.localCount));
 	}
 
 	@Override
-	public Void visitFunctionStatement(Function stmt) {
+	public Completion visitFunctionStatement(Function stmt) {
 		LoxFunction function = new LoxFunction(stmt, environment, false);
-		environment.define(stmt.name.lexeme, function);
-		return null;
+		define(stmt.slot, stmt.name, function);
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitReturnStatement(Stmt.Return stmt) {
-		if (stmt.value != null) {
-			throw new Return(evaluate(stmt.value));
+	public Completion visitReturnStatement(Stmt.Return stmt) {
+		if (stmt.value instanceof Call) {
+			return tailCall((Call) stmt.value);
 		}
-		throw new Return(null);
+		returnValue = stmt.value != null ? evaluate(stmt.value) : null;
+		return Completion.RETURN;
 	}
 
 	@Override
-	public Void visitClassStatement(Class stmt) {
+	public Completion visitClassStatement(Class stmt) {
 		Object superclass = null;
 		if (stmt.superclass != null) {
 			superclass = evaluate(stmt.superclass);
@@ -306,18 +949,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			}
 		}
 
-		environment.define(stmt.name.lexeme, null);
+		define(stmt.slot, stmt.name, null);
 
 		if (stmt.superclass != null) {
 			// Wrap methods' environment with another one that defines "super"
-			environment = new Environment(environment);
-			environment.define("super", superclass);
+			environment = new Environment(environment, 1);
+			environment.define(0, superclass);
 		}
 
-		Map<String, LoxFunction> methods = new HashMap<>();
+		SymbolMap<LoxFunction> methods = new SymbolMap<>();
 		for (Stmt.Function method : stmt.methods) {
-			LoxFunction m = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
-			methods.put(method.name.lexeme, m);
+			LoxFunction m = new LoxFunction(method, environment, method.name.symbol == SymbolTable.INIT);
+			methods.put(method.name.symbol, m);
 		}
 
 		if (superclass != null) {
@@ -325,9 +968,31 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			environment = environment.enclosing;
 		}
 
-		LoxClass loxClass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
-		environment.assign(stmt.name, loxClass);
-		return null;
+		LoxClass loxClass = new LoxClass(stmt.name.lexeme(), (LoxClass) superclass, methods);
+		define(stmt.slot, stmt.name, loxClass);
+		return Completion.NORMAL;
+	}
+
+	@Override
+	public Completion visitImportStatement(Import stmt) {
+		// Imported modules run before the modules importing them
+		return Completion.NORMAL;
+	}
+
+	/**
+	 * Binds a declared variable to a value, either in its slot of the current
+	 * environment or in the globals if the resolver found it to be a global.
+	 *
+	 * @param slot  The slot of the variable, -1 for globals
+	 * @param name  The variable name token
+	 * @param value The value of the variable
+	 */
+	private void define(int slot, Token name, Object value) {
+		if (slot == -1) {
+			environment.define(name, value);
+		} else {
+			environment.define(slot, value);
+		}
 	}
 
 	/**
@@ -340,26 +1005,37 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	 * 
 	 * @param statements       A list of statements to execute
 	 * @param blockEnvironment The block environment
+	 * @return How the block completed, either normally or because of a return
+	 *         statement
 	 */
-	void executeBlock(List<Stmt> statements, Environment blockEnvironment) {
+	Completion executeBlock(List<Stmt> statements, Environment blockEnvironment) {
 		Environment previous = this.environment;
 		try {
 			this.environment = blockEnvironment;
 			for (Stmt s : statements) {
-				execute(s);
+				Completion completion = execute(s);
+				if (completion != Completion.NORMAL) {
+					return completion;
+				}
 			}
+			return Completion.NORMAL;
 		} finally {
 			this.environment = previous;
 		}
 	}
 
 	void interpret(List<Stmt> statements) {
+		Stmt current = null;
 		try {
 			for (Stmt stmt : statements) {
+				current = stmt;
 				execute(stmt);
 			}
 		} catch (RuntimeError error) {
 			Lox.runtimeError(error);
+		} catch (StackOverflowError error) {
+			// Calls report overflows themselves, deeply nested expressions end here
+			Lox.runtimeError(new RuntimeError(current.line, "Stack overflow."));
 		}
 	}
 
@@ -375,15 +1051,36 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	/**
 	 * Interprets a statement.
 	 */
-	private void execute(Stmt stmt) {
-		stmt.accept(this);
+	private Completion execute(Stmt stmt) {
+		if (profiler != null) {
+			return executeProfiled(stmt);
+		}
+		if (sampler != null) {
+			sampler.line(stmt.line);
+		}
+		return stmt.accept(this);
+	}
+
+	private Completion executeProfiled(Stmt stmt) {
+		Profiler.Line previous = profiler.statement(stmt);
+		try {
+			return stmt.accept(this);
+		} finally {
+			profiler.endStatement(previous);
+		}
 	}
 
-	void resolve(Expr expr, int depth) {
-		locals.put(expr, depth);
+	/**
+	 * Returns the value of the return statement that completed last, forgetting
+	 * it so that it can be garbage collected.
+	 */
+	Object takeReturnValue() {
+		Object value = returnValue;
+		returnValue = null;
+		return value;
 	}
 
-	private boolean isTruthy(Object o) {
+	static boolean isTruthy(Object o) {
 		if (o == null) {
 			return false;
 		}
@@ -393,7 +1090,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return true;
 	}
 
-	private boolean isEqual(Object a, Object b) {
+	static boolean isEqual(Object a, Object b) {
 		if (a == null && b == null) {
 			return true;
 		}
@@ -402,6 +1099,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			return false;
 		}
 
+		if (a instanceof Rope || b instanceof Rope) {
+			// Compare the contents of strings regardless of how they were built
+			return Rope.isString(a) && Rope.isString(b) && a.toString().equals(b.toString());
+		}
 		return a.equals(b);
 	}
 
@@ -419,7 +1120,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		throw new RuntimeError(operator, "Operands must be numbers.");
 	}
 
-	private String stringify(Object o) {
+	static String stringify(Object o) {
 		if (o == null) {
 			return "nil";
 		}
@@ -0,0 +1,756 @@
+package tech.riadh.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tech.riadh.lox.ClassFileWriter.Code;
+import tech.riadh.lox.ClassFileWriter.Label;
+import tech.riadh.lox.Expr.Assign;
+import tech.riadh.lox.Expr.Binary;
+import tech.riadh.lox.Expr.Call;
+import tech.riadh.lox.Expr.Get;
+import tech.riadh.lox.Expr.Grouping;
+import tech.riadh.lox.Expr.Literal;
+import tech.riadh.lox.Expr.Logical;
+import tech.riadh.lox.Expr.Set;
+import tech.riadh.lox.Expr.Super;
+import tech.riadh.lox.Expr.This;
+import tech.riadh.lox.Expr.Unary;
+import tech.riadh.lox.Expr.Variable;
+import tech.riadh.lox.Stmt.Block;
+import tech.riadh.lox.Stmt.Class;
+import tech.riadh.lox.Stmt.Expression;
+import tech.riadh.lox.Stmt.For;
+import tech.riadh.lox.Stmt.Function;
+import tech.riadh.lox.Stmt.If;
+import tech.riadh.lox.Stmt.Import;
+import tech.riadh.lox.Stmt.Print;
+import tech.riadh.lox.Stmt.Var;
+import tech.riadh.lox.Stmt.While;
+
+/**
+ * Compiles the bodies of hot functions to JVM bytecode, loaded as hidden
+ * classes so that HotSpot can optimize them like any other Java code.
+ *
+ * A function gets hot when its calls plus the iterations of the loops in its
+ * body reach {@link #COMPILE_THRESHOLD}. Its next call then compiles it, and
+ * the calls after that run the compiled body.
+ *
+ * Since no closure can capture them, the variables of the function live in
+ * JVM locals, loaded from the environment of the call on entry. Arithmetic and
+ * comparisons check that their operands are numbers and compute on unboxed
+ * doubles, comparisons in conditions branching without a boolean in between.
+ * Operands of other types, and the remaining operations, fall back to the
+ * {@link Interpreter}, which keeps the behavior of the tree-walker. Functions
+ * declaring nested functions or classes are not compiled and stay in the
+ * tree-walker.
+ */
+class Jit {
+	static final int COMPILE_THRESHOLD = 1000;
+
+	/**
+	 * What compiled code returns when it ends with a call in return position,
+	 * which the interpreter set up as a tail call, see
+	 * {@link Interpreter#tailCall(Expr.Call, Object, LoxInstance, Object[])}.
+	 */
+	static final Object TAIL_CALL = new Object();
+
+	/**
+	 * The body of a function compiled to JVM bytecode.
+	 */
+	interface CompiledBody {
+		/**
+		 * Runs the body of the function.
+		 *
+		 * @param interpreter The interpreter running the program
+		 * @param environment The environment of the call, with the arguments bound
+		 * @return The returned value
+		 */
+		Object run(Interpreter interpreter, Environment environment);
+	}
+
+	private static final String OBJECT = "java/lang/Object";
+	private static final String INTERPRETER = "tech/riadh/lox/Interpreter";
+	private static final String ENVIRONMENT = "tech/riadh/lox/Environment";
+	private static final String TOKEN = "tech/riadh/lox/Token";
+	private static final String DOUBLE = "java/lang/Double";
+	private static final String BOOLEAN = "java/lang/Boolean";
+	private static final String COMPILED_BODY = "tech/riadh/lox/Jit$CompiledBody";
+
+	private static final int THIS = 0;
+	private static final int INTERPRETER_LOCAL = 1;
+	private static final int ENVIRONMENT_LOCAL = 2;
+
+	/**
+	 * Thrown when a function body uses a construct the JIT doesn't compile.
+	 */
+	private static class Unsupported extends RuntimeException {
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * Records a call to a function, compiling it once it gets hot.
+	 */
+	void countCall(Stmt.Function function) {
+		if (++function.hotness >= COMPILE_THRESHOLD && !function.uncompilable) {
+			compile(function);
+		}
+	}
+
+	/**
+	 * Records an iteration of a loop in the body of a function.
+	 */
+	void countBackedge(Stmt.Function function) {
+		function.hotness++;
+	}
+
+	private void compile(Stmt.Function function) {
+		try {
+			function.compiled = new BodyCompiler(function).compile();
+		} catch (Unsupported | IllegalStateException | LinkageError | ReflectiveOperationException e) {
+			// Keep running the function in the tree-walker
+			function.uncompilable = true;
+		}
+	}
+
+	/**
+	 * Compiles the body of a function into a hidden class implementing
+	 * {@link CompiledBody}. The AST nodes and values the code needs are passed to
+	 * the class's constructor as an array of constants.
+	 */
+	private static class BodyCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+		private final Stmt.Function function;
+		private final ClassFileWriter writer;
+		private final List<Object> constants = new ArrayList<>();
+		private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+		private Code code;
+
+		/**
+		 * A local variable holding values while they are assigned.
+		 */
+		private int temporary;
+
+		/**
+		 * Local variables holding the operands of a binary operation while they
+		 * are checked.
+		 */
+		private int leftOperand;
+		private int rightOperand;
+
+		/**
+		 * The JVM local of each slot of the function's environment.
+		 */
+		private int[] locals;
+
+		BodyCompiler(Stmt.Function function) {
+			this.function = function;
+			this.writer = new ClassFileWriter(ClassFileWriter.ACC_FINAL | ClassFileWriter.ACC_SUPER,
+					"tech/riadh/lox/Jit$Compiled", OBJECT, COMPILED_BODY);
+		}
+
+		CompiledBody compile() throws ReflectiveOperationException {
+			writer.addField(ClassFileWriter.ACC_FINAL, "constants", "[Ljava/lang/Object;");
+
+			code = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", 2);
+			code.load(THIS);
+			code.invoke(Code.INVOKESPECIAL, OBJECT, "<init>", "()V");
+			code.load(THIS);
+			code.load(1);
+			code.field(Code.PUTFIELD, "tech/riadh/lox/Jit$Compiled", "constants", "[Ljava/lang/Object;");
+			code.op(Code.RETURN, 0);
+
+			code = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "run",
+					"(L" + INTERPRETER + ";L" + ENVIRONMENT + ";)L" + OBJECT + ";", 3);
+			temporary = code.newLocal();
+			leftOperand = code.newLocal();
+			rightOperand = code.newLocal();
+			loadLocals();
+			for (Stmt s : function.body) {
+				compile(s);
+			}
+			code.op(Code.ACONST_NULL, 1);
+			code.op(Code.ARETURN, -1);
+
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(writer.toByteArray(), true);
+			return (CompiledBody) lookup.lookupClass().getDeclaredConstructor(Object[].class)
+					.newInstance((Object) constants.toArray());
+		}
+
+		@Override
+		public Void visitBinaryExpr(Binary expr) {
+			int stack = code.stack();
+			Label slow = new Label();
+			Label end = new Label();
+			switch (expr.operator.type) {
+				case PLUS, MINUS, STAR, SLASH -> {
+					numbers(expr, slow, false);
+					code.op(switch (expr.operator.type) {
+						case PLUS -> Code.DADD;
+						case MINUS -> Code.DSUB;
+						case STAR -> Code.DMUL;
+						default -> Code.DDIV;
+					}, -2);
+					code.invoke(Code.INVOKESTATIC, DOUBLE, "valueOf", "(D)Ljava/lang/Double;");
+					code.jump(Code.GOTO, end);
+					code.mark(slow, stack);
+					binary(expr);
+					code.mark(end, stack + 1);
+				}
+				default -> {
+					// A comparison, pushed as the boolean its condition computes
+					Label isFalse = new Label();
+					condition(expr, isFalse);
+					code.field(Code.GETSTATIC, BOOLEAN, "TRUE", "Ljava/lang/Boolean;");
+					code.jump(Code.GOTO, end);
+					code.mark(isFalse, stack);
+					code.field(Code.GETSTATIC, BOOLEAN, "FALSE", "Ljava/lang/Boolean;");
+					code.mark(end, stack + 1);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Compiles the operands of a binary operation, and checks that they are
+		 * numbers. If they are, they're left on the stack as doubles, otherwise
+		 * the code jumps to the given label, where {@link #binary(Binary)} can
+		 * apply the operation to them.
+		 *
+		 * @param bits Whether to push the bits of the doubles as longs instead,
+		 *             to compare them like {@link Double#equals(Object)}
+		 */
+		private void numbers(Binary expr, Label slow, boolean bits) {
+			boolean leftLiteral = isNumber(expr.left);
+			boolean rightLiteral = isNumber(expr.right);
+			if (!leftLiteral) {
+				compile(expr.left);
+			}
+			if (!rightLiteral) {
+				compile(expr.right);
+				code.store(rightOperand);
+			}
+			if (!leftLiteral) {
+				code.store(leftOperand);
+			}
+
+			if (!leftLiteral) {
+				guard(leftOperand, slow);
+			}
+			if (!rightLiteral) {
+				guard(rightOperand, slow);
+			}
+			number(expr.left, leftOperand, bits);
+			number(expr.right, rightOperand, bits);
+		}
+
+		private static boolean isNumber(Expr expr) {
+			return expr instanceof Literal && ((Literal) expr).value instanceof Double;
+		}
+
+		/**
+		 * Jumps to the given label unless the local holds a number.
+		 */
+		private void guard(int local, Label slow) {
+			code.load(local);
+			code.type(Code.INSTANCEOF, DOUBLE);
+			code.jump(Code.IFEQ, slow);
+		}
+
+		/**
+		 * Pushes an operand checked to be a number as a double.
+		 */
+		private void number(Expr operand, int local, boolean bits) {
+			if (isNumber(operand)) {
+				code.pushDouble((Double) ((Literal) operand).value);
+			} else {
+				code.load(local);
+				code.type(Code.CHECKCAST, DOUBLE);
+				code.invoke(Code.INVOKEVIRTUAL, DOUBLE, "doubleValue", "()D");
+			}
+			if (bits) {
+				code.invoke(Code.INVOKESTATIC, DOUBLE, "doubleToLongBits", "(D)J");
+			}
+		}
+
+		/**
+		 * Applies a binary operation to the operands {@link #numbers} found not to
+		 * be numbers, through the interpreter.
+		 */
+		private void binary(Binary expr) {
+			code.load(INTERPRETER_LOCAL);
+			constant(expr, "tech/riadh/lox/Expr$Binary");
+			operand(expr.left, leftOperand);
+			operand(expr.right, rightOperand);
+			code.invoke(Code.INVOKEVIRTUAL, INTERPRETER, "binary",
+					"(Ltech/riadh/lox/Expr$Binary;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+		}
+
+		private void operand(Expr operand, int local) {
+			if (isNumber(operand)) {
+				constant(((Literal) operand).value, null);
+			} else {
+				code.load(local);
+			}
+		}
+
+		@Override
+		public Void visitGroupingExpr(Grouping expr) {
+			compile(expr.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitLiteralExpr(Literal expr) {
+			if (expr.value == null) {
+				code.op(Code.ACONST_NULL, 1);
+			} else {
+				constant(expr.value, null);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitLogicalExpr(Logical expr) {
+			Label end = new Label();
+			compile(expr.left);
+			int stack = code.stack();
+			code.op(Code.DUP, 1);
+			code.invoke(Code.INVOKESTATIC, INTERPRETER, "isTruthy", "(Ljava/lang/Object;)Z");
+			// Short-circuit with the left operand as result
+			code.jump(expr.operator.type == TokenType.AND ? Code.IFEQ : Code.IFNE, end);
+			code.op(Code.POP, -1);
+			compile(expr.right);
+			code.mark(end, stack);
+			return null;
+		}
+
+		@Override
+		public Void visitUnaryExpr(Unary expr) {
+			int stack = code.stack();
+			Label slow = new Label();
+			Label end = new Label();
+			compile(expr.right);
+			code.store(rightOperand);
+			if (expr.operator.type == TokenType.MINUS) {
+				guard(rightOperand, slow);
+				number(expr.right, rightOperand, false);
+				code.op(Code.DNEG, 0);
+				code.invoke(Code.INVOKESTATIC, DOUBLE, "valueOf", "(D)Ljava/lang/Double;");
+				code.jump(Code.GOTO, end);
+			}
+			code.mark(slow, stack);
+			code.load(INTERPRETER_LOCAL);
+			constant(expr, "tech/riadh/lox/Expr$Unary");
+			code.load(rightOperand);
+			code.invoke(Code.INVOKEVIRTUAL, INTERPRETER, "unary",
+					"(Ltech/riadh/lox/Expr$Unary;Ljava/lang/Object;)Ljava/lang/Object;");
+			code.mark(end, stack + 1);
+			return null;
+		}
+
+		@Override
+		public Void visitVariableExpr(Variable expr) {
+			load(expr, expr.name);
+			return null;
+		}
+
+		@Override
+		public Void visitAssignExpr(Assign expr) {
+			compile(expr.value);
+			if (expr.depth == 0) {
+				code.op(Code.DUP, 1);
+				code.store(locals[expr.slot]);
+				return null;
+			}
+
+			code.store(temporary);
+			if (expr.depth != -1) {
+				code.load(ENVIRONMENT_LOCAL);
+				code.pushInt(expr.depth);
+				code.pushInt(expr.slot);
+				code.load(temporary);
+				code.invoke(Code.INVOKEVIRTUAL, ENVIRONMENT, "assignAt", "(IILjava/lang/Object;)V");
+			} else {
+				code.load(INTERPRETER_LOCAL);
+				code.field(Code.GETFIELD, INTERPRETER, "globals", "L" + ENVIRONMENT + ";");
+				constant(expr.name, TOKEN);
+				code.load(temporary);
+				code.invoke(Code.INVOKEVIRTUAL, ENVIRONMENT, "assign", "(L" + TOKEN + ";Ljava/lang/Object;)V");
+			}
+			code.load(temporary);
+			return null;
+		}
+
+		@Override
+		public Void visitCallExpr(Call expr) {
+			code.load(INTERPRETER_LOCAL);
+			constant(expr, "tech/riadh/lox/Expr$Call");
+			compile(expr.callee);
+
+			int count = expr.arguments.size();
+			if (count <= 4) {
+				for (Expr arg : expr.arguments) {
+					compile(arg);
+				}
+				code.invoke(Code.INVOKEVIRTUAL, INTERPRETER, "call" + count,
+						"(Ltech/riadh/lox/Expr$Call;" + "Ljava/lang/Object;".repeat(count + 1) + ")Ljava/lang/Object;");
+			} else {
+				code.pushInt(count);
+				code.type(Code.ANEWARRAY, OBJECT);
+				for (int i = 0; i < count; i++) {
+					code.op(Code.DUP, 1);
+					code.pushInt(i);
+					compile(expr.arguments.get(i));
+					code.op(Code.AASTORE, -3);
+				}
+				code.invoke(Code.INVOKEVIRTUAL, INTERPRETER, "call",
+						"(Ltech/riadh/lox/Expr$Call;Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;");
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitGetExpr(Get expr) {
+			code.load(INTERPRETER_LOCAL);
+			constant(expr, "tech/riadh/lox/Expr$Get");
+			compile(expr.object);
+			code.invoke(Code.INVOKEVIRTUAL, INTERPRETER, "getProperty",
+					"(Ltech/riadh/lox/Expr$Get;Ljava/lang/Object;)Ljava/lang/Object;");
+			return null;
+		}
+
+		@Override
+		public Void visitSetExpr(Set expr) {
+			code.load(INTERPRETER_LOCAL);
+			constant(expr, "tech/riadh/lox/Expr$Set");
+			code.load(INTERPRETER_LOCAL);
+			constant(expr, "tech/riadh/lox/Expr$Set");
+			compile(expr.object);
+			code.invoke(Code.INVOKEVIRTUAL, INTERPRETER, "fieldOwner",
+					"(Ltech/riadh/lox/Expr$Set;Ljava/lang/Object;)Ltech/riadh/lox/LoxInstance;");
+			compile(expr.value);
+			code.invoke(Code.INVOKEVIRTUAL, INTERPRETER, "setField",
+					"(Ltech/riadh/lox/Expr$Set;Ltech/riadh/lox/LoxInstance;Ljava/lang/Object;)Ljava/lang/Object;");
+			return null;
+		}
+
+		@Override
+		public Void visitThisExpr(This expr) {
+			load(expr, expr.keyword);
+			return null;
+		}
+
+		@Override
+		public Void visitSuperExpr(Super expr) {
+			code.load(INTERPRETER_LOCAL);
+			constant(expr, "tech/riadh/lox/Expr$Super");
+			code.load(ENVIRONMENT_LOCAL);
+			code.invoke(Code.INVOKEVIRTUAL, INTERPRETER, "superMethod",
+					"(Ltech/riadh/lox/Expr$Super;L" + ENVIRONMENT + ";)Ljava/lang/Object;");
+			return null;
+		}
+
+		@Override
+		public Void visitVarStatement(Var stmt) {
+			if (stmt.initializer != null) {
+				compile(stmt.initializer);
+			} else {
+				code.op(Code.ACONST_NULL, 1);
+			}
+			code.store(locals[stmt.slot]);
+			return null;
+		}
+
+		@Override
+		public Void visitExpressionStatement(Expression stmt) {
+			compile(stmt.expression);
+			code.op(Code.POP, -1);
+			return null;
+		}
+
+		@Override
+		public Void visitPrintStatement(Print stmt) {
+			code.field(Code.GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+			compile(stmt.expression);
+			code.invoke(Code.INVOKESTATIC, INTERPRETER, "stringify", "(Ljava/lang/Object;)Ljava/lang/String;");
+			code.invoke(Code.INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V");
+			return null;
+		}
+
+		@Override
+		public Void visitBlockStatement(Block stmt) {
+			if (stmt.localCount != 0) {
+				// Only closures make scopes of their own, and they aren't compiled
+				throw new Unsupported();
+			}
+			for (Stmt s : stmt.statements) {
+				compile(s);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitIfStatement(If stmt) {
+			Label elseBranch = new Label();
+			Label end = new Label();
+
+			condition(stmt.condition, elseBranch);
+			compile(stmt.thenBranch);
+			code.jump(Code.GOTO, end);
+			code.mark(elseBranch, 0);
+			if (stmt.elseBranch != null) {
+				compile(stmt.elseBranch);
+			}
+			code.mark(end, 0);
+			return null;
+		}
+
+		@Override
+		public Void visitWhileStatement(While stmt) {
+			Label start = new Label();
+			Label end = new Label();
+
+			code.mark(start, 0);
+			condition(stmt.condition, end);
+			compile(stmt.body);
+			code.jump(Code.GOTO, start);
+			code.mark(end, 0);
+			return null;
+		}
+
+		@Override
+		public Void visitForStatement(For stmt) {
+			Label start = new Label();
+			Label end = new Label();
+
+			if (stmt.localCount != 0) {
+				throw new Unsupported();
+			}
+			if (stmt.initializer != null) {
+				compile(stmt.initializer);
+			}
+			code.mark(start, 0);
+			if (stmt.condition != null) {
+				condition(stmt.condition, end);
+			}
+			compile(stmt.body);
+			if (stmt.increment != null) {
+				compile(stmt.increment);
+				code.op(Code.POP, -1);
+			}
+			code.jump(Code.GOTO, start);
+			code.mark(end, 0);
+			return null;
+		}
+
+		@Override
+		public Void visitFunctionStatement(Function stmt) {
+			throw new Unsupported();
+		}
+
+		@Override
+		public Void visitReturnStatement(Stmt.Return stmt) {
+			if (stmt.value instanceof Call) {
+				tailCall((Call) stmt.value);
+				code.op(Code.ARETURN, -1);
+				return null;
+			}
+			if (stmt.value != null) {
+				compile(stmt.value);
+			} else {
+				code.op(Code.ACONST_NULL, 1);
+			}
+			code.op(Code.ARETURN, -1);
+			return null;
+		}
+
+		@Override
+		public Void visitClassStatement(Class stmt) {
+			throw new Unsupported();
+		}
+
+		@Override
+		public Void visitImportStatement(Import stmt) {
+			// Functions can't import
+			throw new Unsupported();
+		}
+
+		/**
+		 * Compiles a call in return position, which calls to Lox functions don't
+		 * run but leave to the returning function call, so that tail calls don't
+		 * grow the stack in compiled code either.
+		 */
+		private void tailCall(Call expr) {
+			code.load(INTERPRETER_LOCAL);
+			constant(expr, "tech/riadh/lox/Expr$Call");
+			if (expr.callee instanceof Get) {
+				Get get = (Get) expr.callee;
+				compile(get.object);
+				code.store(temporary);
+				code.load(INTERPRETER_LOCAL);
+				constant(get, "tech/riadh/lox/Expr$Get");
+				code.load(temporary);
+				code.invoke(Code.INVOKEVIRTUAL, INTERPRETER, "tailCallee",
+						"(Ltech/riadh/lox/Expr$Get;Ljava/lang/Object;)Ljava/lang/Object;");
+				constant(get, "tech/riadh/lox/Expr$Get");
+				code.load(temporary);
+				code.invoke(Code.INVOKESTATIC, INTERPRETER, "methodReceiver",
+						"(Ltech/riadh/lox/Expr$Get;Ljava/lang/Object;)Ltech/riadh/lox/LoxInstance;");
+			} else if (expr.callee instanceof Super) {
+				Super superExpr = (Super) expr.callee;
+				constant(superExpr, "tech/riadh/lox/Expr$Super");
+				code.load(ENVIRONMENT_LOCAL);
+				code.invoke(Code.INVOKESTATIC, INTERPRETER, "findSuperMethod",
+						"(Ltech/riadh/lox/Expr$Super;L" + ENVIRONMENT + ";)Ltech/riadh/lox/LoxFunction;");
+				compile(superExpr.receiver);
+				code.type(Code.CHECKCAST, "tech/riadh/lox/LoxInstance");
+			} else {
+				compile(expr.callee);
+				code.op(Code.ACONST_NULL, 1);
+			}
+
+			int count = expr.arguments.size();
+			code.pushInt(count);
+			code.type(Code.ANEWARRAY, OBJECT);
+			for (int i = 0; i < count; i++) {
+				code.op(Code.DUP, 1);
+				code.pushInt(i);
+				compile(expr.arguments.get(i));
+				code.op(Code.AASTORE, -3);
+			}
+			code.invoke(Code.INVOKEVIRTUAL, INTERPRETER, "tailCall", "(Ltech/riadh/lox/Expr$Call;Ljava/lang/Object;"
+					+ "Ltech/riadh/lox/LoxInstance;[Ljava/lang/Object;)Ljava/lang/Object;");
+		}
+
+		/**
+		 * Copies the variables bound in the environment of the call, the
+		 * parameters and "this", to the JVM locals of the function.
+		 */
+		private void loadLocals() {
+			locals = new int[function.localCount];
+			code.load(ENVIRONMENT_LOCAL);
+			code.invoke(Code.INVOKEVIRTUAL, ENVIRONMENT, "values", "()[Ljava/lang/Object;");
+			code.store(temporary);
+			for (int slot = 0; slot < locals.length; slot++) {
+				locals[slot] = code.newLocal();
+				code.load(temporary);
+				code.pushInt(slot);
+				code.op(Code.AALOAD, -1);
+				code.store(locals[slot]);
+			}
+		}
+
+		private void compile(Stmt stmt) {
+			stmt.accept(this);
+		}
+
+		private void compile(Expr expr) {
+			expr.accept(this);
+		}
+
+		/**
+		 * Compiles a condition jumping to the given label if it is falsey.
+		 * Comparisons of numbers branch on the comparison itself.
+		 */
+		private void condition(Expr condition, Label ifFalse) {
+			if (condition instanceof Logical && ((Logical) condition).operator.type == TokenType.AND) {
+				condition(((Logical) condition).left, ifFalse);
+				condition(((Logical) condition).right, ifFalse);
+				return;
+			}
+			if (!(condition instanceof Binary) || !isComparison(((Binary) condition).operator.type)) {
+				compile(condition);
+				code.invoke(Code.INVOKESTATIC, INTERPRETER, "isTruthy", "(Ljava/lang/Object;)Z");
+				code.jump(Code.IFEQ, ifFalse);
+				return;
+			}
+
+			Binary expr = (Binary) condition;
+			int stack = code.stack();
+			Label slow = new Label();
+			Label isTrue = new Label();
+			TokenType operator = expr.operator.type;
+			boolean equality = operator == TokenType.EQUAL_EQUAL || operator == TokenType.BANG_EQUAL;
+			numbers(expr, slow, equality);
+			// NaN compares false, hence DCMPG for less and DCMPL for greater
+			switch (operator) {
+				case LESS -> compare(Code.DCMPG, Code.IFGE, ifFalse);
+				case LESS_EQUAL -> compare(Code.DCMPG, Code.IFGT, ifFalse);
+				case GREATER -> compare(Code.DCMPL, Code.IFLE, ifFalse);
+				case GREATER_EQUAL -> compare(Code.DCMPL, Code.IFLT, ifFalse);
+				case EQUAL_EQUAL -> compare(Code.LCMP, Code.IFNE, ifFalse);
+				default -> compare(Code.LCMP, Code.IFEQ, ifFalse);
+			}
+			code.jump(Code.GOTO, isTrue);
+			code.mark(slow, stack);
+			binary(expr);
+			code.invoke(Code.INVOKESTATIC, INTERPRETER, "isTruthy", "(Ljava/lang/Object;)Z");
+			code.jump(Code.IFEQ, ifFalse);
+			code.mark(isTrue, stack);
+		}
+
+		private static boolean isComparison(TokenType operator) {
+			return switch (operator) {
+				case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL, EQUAL_EQUAL, BANG_EQUAL -> true;
+				default -> false;
+			};
+		}
+
+		/**
+		 * Compares the two doubles or longs on the stack, jumping to the given
+		 * label if the comparison is false.
+		 */
+		private void compare(int comparison, int jump, Label ifFalse) {
+			code.op(comparison, -3);
+			code.jump(jump, ifFalse);
+		}
+
+		/**
+		 * Loads the value of a variable the resolver resolved.
+		 */
+		private void load(Expr.Resolvable expr, Token name) {
+			if (expr.depth == 0) {
+				code.load(locals[expr.slot]);
+			} else if (expr.depth != -1) {
+				code.load(ENVIRONMENT_LOCAL);
+				code.pushInt(expr.depth);
+				code.pushInt(expr.slot);
+				code.invoke(Code.INVOKEVIRTUAL, ENVIRONMENT, "getAt", "(II)Ljava/lang/Object;");
+			} else {
+				code.load(INTERPRETER_LOCAL);
+				code.field(Code.GETFIELD, INTERPRETER, "globals", "L" + ENVIRONMENT + ";");
+				constant(name, TOKEN);
+				code.invoke(Code.INVOKEVIRTUAL, ENVIRONMENT, "get", "(L" + TOKEN + ";)Ljava/lang/Object;");
+			}
+		}
+
+		/**
+		 * Loads a constant from the constants array of the compiled class.
+		 *
+		 * @param value The constant
+		 * @param type  The internal name of the class to cast the constant to, or
+		 *              null if it's used as an Object
+		 */
+		private void constant(Object value, String type) {
+			Integer index = constantIndexes.get(value);
+			if (index == null) {
+				index = constants.size();
+				constants.add(value);
+				constantIndexes.put(value, index);
+			}
+
+			code.load(THIS);
+			code.field(Code.GETFIELD, "tech/riadh/lox/Jit$Compiled", "constants", "[Ljava/lang/Object;");
+			code.pushInt(index);
+			code.op(Code.AALOAD, -1);
+			if (type != null) {
+				code.type(Code.CHECKCAST, type);
+			}
+		}
+	}
+}
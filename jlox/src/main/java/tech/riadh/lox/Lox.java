@@ -3,31 +3,228 @@ package tech.riadh.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.function.Supplier;
+
+import tech.riadh.lox.ModuleLoader.Module;
 
 public class Lox {
     private static final Interpreter INTERPRETER = new Interpreter();
+    private static final VM VM = new VM();
+
+    /**
+     * Whether to run programs on the bytecode {@link VM} instead of the
+     * tree-walking {@link Interpreter}.
+     */
+    private static boolean useVm = false;
+
+    /**
+     * Whether to run the {@link Optimizer} on programs before running them.
+     */
+    private static boolean optimize = false;
+
+    /**
+     * The file to write the folded stacks of the {@link Profiler} to, or null
+     * when not profiling.
+     */
+    private static Path profile = null;
+
+    /**
+     * The file to write the folded stacks of the {@link Sampler} to, or null
+     * when not sampling.
+     */
+    private static Path sample = null;
+
+    /**
+     * Default number of samples the {@link Sampler} takes per second.
+     */
+    private static final int DEFAULT_SAMPLE_RATE = 1000;
+
+    /**
+     * Loads the modules programs import, see {@link ModuleLoader}.
+     */
+    private static ModuleLoader loader;
 
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
-    public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runPrompt();
+    /**
+     * The errors of the module compiling on each thread, if any, which collect
+     * the errors reported instead of printing them.
+     */
+    private static final ThreadLocal<CompileErrors> COMPILATION = new ThreadLocal<>();
+
+    /**
+     * Default stack size of the thread running programs, which bounds how deep
+     * Lox calls can nest.
+     */
+    private static final long DEFAULT_STACK_SIZE = 256L * 1024 * 1024;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String script = null;
+        long stackSize = DEFAULT_STACK_SIZE;
+        boolean cache = false;
+        Path snapshot = null;
+        Path restore = null;
+        int sampleRate = DEFAULT_SAMPLE_RATE;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--vm")) {
+                useVm = true;
+            } else if (arg.equals("--jit")) {
+                INTERPRETER.jit = new Jit();
+            } else if (arg.equals("--optimize")) {
+                optimize = true;
+            } else if (arg.equals("--cache")) {
+                cache = true;
+            } else if (arg.equals("--snapshot") && i + 1 < args.length) {
+                snapshot = Paths.get(args[++i]);
+            } else if (arg.equals("--from-snapshot") && i + 1 < args.length) {
+                restore = Paths.get(args[++i]);
+            } else if (arg.equals("--profile")) {
+                profile = Paths.get("profile.folded");
+            } else if (arg.startsWith("--profile=")) {
+                profile = Paths.get(arg.substring("--profile=".length()));
+            } else if (arg.equals("--sample")) {
+                sample = Paths.get("sample.folded");
+            } else if (arg.startsWith("--sample=")) {
+                sample = Paths.get(arg.substring("--sample=".length()));
+            } else if (arg.startsWith("--sample-rate=")) {
+                sampleRate = parseRate(arg.substring("--sample-rate=".length()));
+            } else if (arg.startsWith("--stack-size=")) {
+                stackSize = parseSize(arg.substring("--stack-size=".length()));
+            } else if (script == null && !arg.startsWith("--")) {
+                script = arg;
+            } else {
+                usage();
+            }
+        }
+
+        if (useVm && (snapshot != null || restore != null || profile != null || sample != null)) {
+            // Snapshots and profiles are about the tree-walking interpreter
+            usage();
+        }
+
+        if (INTERPRETER.jit != null && (profile != null || sample != null)) {
+            // Compiled functions don't report the lines they run
+            usage();
+        }
+
+        if (profile != null && sample != null) {
+            // The instrumentation would distort the samples
+            usage();
+        }
+
+        loader = new ModuleLoader(stackSize, cache ? new ProgramCache(optimize) : null);
+
+        // Run on a thread of our own to choose how much stack Lox calls get
+        String path = script;
+        Path snapshotPath = snapshot;
+        Path restorePath = restore;
+        int rate = sampleRate;
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                if (profile != null) {
+                    // The profiler measures the allocations of the thread creating it
+                    INTERPRETER.profiler = new Profiler();
+                }
+                if (sample != null) {
+                    INTERPRETER.sampler = new Sampler(rate);
+                }
+                if (restorePath != null) {
+                    Snapshot.restore(INTERPRETER, restorePath);
+                }
+                if (path != null) {
+                    runFile(path, snapshotPath);
+                } else {
+                    runPrompt();
+                    reportProfile();
+                    if (snapshotPath != null) {
+                        Snapshot.write(INTERPRETER, snapshotPath);
+                    }
+                }
+            } catch (Throwable e) {
+                // Failures must not end the program with a successful status
+                failure[0] = e;
+            }
+        }, "lox", stackSize);
+        thread.start();
+        thread.join();
+        loader.shutdown();
+
+        if (failure[0] instanceof IOException) {
+            throw (IOException) failure[0];
+        }
+        if (failure[0] != null) {
+            failure[0].printStackTrace();
+            System.exit(70);
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--vm | --jit] [--optimize] [--cache] [--stack-size=<bytes>[k|m|g]]"
+                + " [--from-snapshot <file>] [--snapshot <file>] [--profile[=<folded stacks file>]]"
+                + " [--sample[=<folded stacks file>]] [--sample-rate=<samples per second>] [script]");
+        System.exit(64);
+    }
+
+    /**
+     * Parses a size in bytes, optionally suffixed with k, m or g.
+     */
+    private static long parseSize(String size) {
+        long unit = 1;
+        switch (size.isEmpty() ? ' ' : Character.toLowerCase(size.charAt(size.length() - 1))) {
+            case 'k' -> unit = 1024;
+            case 'm' -> unit = 1024 * 1024;
+            case 'g' -> unit = 1024 * 1024 * 1024;
+            default -> {
+            }
+        }
+        if (unit != 1) {
+            size = size.substring(0, size.length() - 1);
+        }
+
+        try {
+            long value = Long.parseLong(size) * unit;
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        usage();
+        return 0;
+    }
+
+    /**
+     * Parses a number of samples per second.
+     */
+    private static int parseRate(String rate) {
+        try {
+            int value = Integer.parseInt(rate);
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
         }
+        usage();
+        return 0;
     }
 
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+    /**
+     * Runs a script.
+     *
+     * @param path     The path of the script
+     * @param snapshot The file to save the globals to once the script ran
+     *                 successfully, or null
+     */
+    private static void runFile(String path, Path snapshot) throws IOException {
+        run(loader.loadMain(Paths.get(path)));
+        reportProfile();
 
         if (hadError) {
             System.exit(65);
@@ -36,6 +233,10 @@ public class Lox {
         if (hadRuntimeError) {
             System.exit(70);
         }
+
+        if (snapshot != null) {
+            Snapshot.write(INTERPRETER, snapshot);
+        }
     }
 
     private static void runPrompt() throws IOException {
@@ -48,50 +249,170 @@ public class Lox {
             if (line == null) {
                 break;
             }
-            run(line);
+            run(loader.compile(line));
             hadError = false;
+            hadRuntimeError = false;
+        }
+    }
+
+    /**
+     * Prints the report of the profiler and writes its folded stacks, if
+     * profiling, and writes the stacks sampled, if sampling.
+     */
+    private static void reportProfile() throws IOException {
+        if (INTERPRETER.profiler != null) {
+            INTERPRETER.profiler.report(System.err);
+            INTERPRETER.profiler.writeFolded(profile);
+        }
+        if (INTERPRETER.sampler != null) {
+            long samples = INTERPRETER.sampler.finish(sample);
+            System.err.println("Wrote " + samples + " samples to " + sample);
         }
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+    /**
+     * Runs a module after the modules it imports that didn't run yet, unless any
+     * of them has errors.
+     */
+    private static void run(Module main) {
+        List<Module> modules = loader.schedule(main);
+
+        // In the order the modules would run, whichever compiled first
+        for (Module module : modules) {
+            report(module.errors);
+        }
 
-        if (hadError) { // stop if there is a syntax error
+        if (hadError) { // stop if any module has a syntax or resolution error
             return;
         }
 
-        Resolver resolver = new Resolver(INTERPRETER);
-        resolver.resolve(statements);
+        for (Module module : modules) {
+            execute(module);
+            if (hadRuntimeError || hadError) {
+                return;
+            }
+        }
+    }
 
-        if (hadError) { // stop if there is a resolution error
-            return;
+    /**
+     * Runs the front end on the source of a module, see
+     * {@link #compile(CharSequence, CompileErrors)}, and prints its errors.
+     */
+    static List<Stmt> compile(CharSequence source) {
+        CompileErrors errors = new CompileErrors(null);
+        List<Stmt> statements = compile(source, errors);
+        report(errors);
+        return statements;
+    }
+
+    /**
+     * Runs the front end on the source of a module: parses it, resolves it and
+     * optimizes it if asked to. The loader calls this concurrently for different
+     * modules.
+     *
+     * @param source The source of the module
+     * @param errors Gets the errors reported while compiling the module
+     * @return The statements of the module, ready to run unless an error was
+     *         reported
+     */
+    static List<Stmt> compile(CharSequence source, CompileErrors errors) {
+        return compiling(errors, () -> {
+            Parser parser = new Parser(new Scanner(source));
+            List<Stmt> statements = parser.parse();
+
+            if (errors.any()) { // stop if there is a syntax error
+                return statements;
+            }
+
+            Resolver resolver = new Resolver();
+            resolver.resolveScript(statements);
+
+            if (errors.any()) { // stop if there is a resolution error
+                return statements;
+            }
+
+            if (optimize) {
+                statements = new Optimizer().optimize(statements);
+                // The optimized program is made of new nodes
+                new Resolver().resolveScript(statements);
+            }
+            return statements;
+        });
+    }
+
+    /**
+     * Runs a compilation step, reporting its errors to the given errors of the
+     * module.
+     */
+    private static <T> T compiling(CompileErrors errors, Supplier<T> step) {
+        CompileErrors enclosing = COMPILATION.get();
+        COMPILATION.set(errors);
+        try {
+            return step.get();
+        } finally {
+            COMPILATION.set(enclosing);
         }
+    }
 
-        INTERPRETER.interpret(statements);
+    private static void execute(Module module) {
+        if (useVm) {
+            Chunk script = compiling(module.errors, () -> new Compiler().compile(module.statements));
+
+            if (module.errors.any()) { // stop if the program is too large to compile
+                report(module.errors);
+                return;
+            }
+
+            VM.interpret(script);
+        } else {
+            INTERPRETER.interpret(module.statements);
+        }
     }
 
     static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        System.err.println(error.getMessage() + "\n[line " + error.line + "]");
         hadRuntimeError = true;
     }
 
     static void error(int line, String message) {
-        report(line, "", message);
+        report(COMPILATION.get(), line, "", message);
     }
 
     static void error(Token token, String message) {
+        error(COMPILATION.get(), token, message);
+    }
+
+    /**
+     * Reports an error of a module outside of its compilation, to print along
+     * with its other errors.
+     */
+    static void error(CompileErrors errors, Token token, String message) {
         if (token.type == TokenType.EOF) {
-            report(token.line, " at the end", message);
+            report(errors, token.line, " at the end", message);
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            report(errors, token.line, " at '" + token.lexeme() + "'", message);
         }
     }
 
-    private static void report(int line, String where, String message) {
-        System.err.println("[" + line + "] Error " + where + ": " + message);
-        hadError = true;
+    private static void report(CompileErrors errors, int line, String where, String message) {
+        if (errors == null) { // not compiling any module, print it right away
+            errors = new CompileErrors(null);
+            errors.add(line, where, message);
+            report(errors);
+        } else {
+            errors.add(line, where, message);
+        }
+    }
+
+    /**
+     * Prints the errors of a module.
+     */
+    private static void report(CompileErrors errors) {
+        for (String message : errors.messages()) {
+            System.err.println(message);
+        }
+        if (errors.any()) {
+            hadError = true;
+        }
     }
 }
@@ -1,11 +1,14 @@
 package tech.riadh.lox;
 
-import java.util.List;
-
 /**
  * LoxCallable is an interface to be implemented by any Java representation of a
  * Lox object that can be called like a function, that includes user-defined
  * functions and class objects when called to construct new instances.
+ *
+ * Calls with up to four arguments go through the fixed-arity entry points,
+ * which pass the arguments without allocating an array. Implementations
+ * override the ones they can handle faster than the array-based
+ * {@link #call(Interpreter, Object[])}.
  */
 interface LoxCallable {
 	/**
@@ -13,5 +16,29 @@ interface LoxCallable {
 	 */
 	int arity();
 
-	Object call(Interpreter interpreter, List<Object> arguments);
+	/**
+	 * Calls the callable with any number of arguments, which the caller already
+	 * checked to match its arity.
+	 */
+	Object call(Interpreter interpreter, Object[] arguments);
+
+	default Object call0(Interpreter interpreter) {
+		return call(interpreter, new Object[] {});
+	}
+
+	default Object call1(Interpreter interpreter, Object a) {
+		return call(interpreter, new Object[] { a });
+	}
+
+	default Object call2(Interpreter interpreter, Object a, Object b) {
+		return call(interpreter, new Object[] { a, b });
+	}
+
+	default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+		return call(interpreter, new Object[] { a, b, c });
+	}
+
+	default Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+		return call(interpreter, new Object[] { a, b, c, d });
+	}
 }
@@ -1,37 +1,48 @@
 package tech.riadh.lox;
 
 import java.util.List;
-import java.util.Map;
 
 class LoxClass implements LoxCallable {
 	final String name;
 	final LoxClass superclass;
-	private final Map<String, LoxFunction> methods;
 
-	LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+	/**
+	 * The methods of the class along with the ones it inherits, so that looking
+	 * up a method never walks the superclass chain.
+	 */
+	private final SymbolMap<LoxFunction> methods;
+	private final LoxFunction initializer;
+
+	/**
+	 * The shape new instances of the class start with.
+	 */
+	final Shape shape = Shape.empty();
+
+	LoxClass(String name, LoxClass superclass, SymbolMap<LoxFunction> methods) {
 		this.name = name;
 		this.superclass = superclass;
-		this.methods = methods;
+		this.methods = superclass != null ? new SymbolMap<>(superclass.methods) : new SymbolMap<>();
+		this.methods.putAll(methods);
+		this.initializer = this.methods.get(SymbolTable.INIT);
 	}
 
 	/**
 	 * Finds by name and returns a {@link LoxFunction} instance of a method in this
 	 * class or its superclass.
 	 *
-	 * @param name The name of the method to find
+	 * @param name The symbol of the name of the method to find
 	 * @return The instance of that method if it is found, otherwise it returns
 	 *         null.
 	 */
-	LoxFunction findMethod(String name) {
-		if (methods.containsKey(name)) {
-			return methods.get(name);
-		}
-
-		if (superclass != null) {
-			return superclass.findMethod(name);
-		}
+	LoxFunction findMethod(int name) {
+		return methods.get(name);
+	}
 
-		return null;
+	/**
+	 * Returns the methods of the class, including the inherited ones.
+	 */
+	List<LoxFunction> methods() {
+		return methods.values();
 	}
 
 	@Override
@@ -41,7 +52,6 @@ class LoxClass implements LoxCallable {
 
 	@Override
 	public int arity() {
-		LoxFunction initializer = findMethod("init");
 		if (initializer != null) {
 			return initializer.arity();
 		}
@@ -50,14 +60,72 @@ class LoxClass implements LoxCallable {
 	}
 
 	@Override
-	public Object call(Interpreter interpreter, List<Object> arguments) {
+	public Object call(Interpreter interpreter, Object[] arguments) {
+		LoxInstance instance = new LoxInstance(this);
+
+		if (initializer != null) {
+			Environment env = initializer.frame(instance);
+			for (int i = 0; i < arguments.length; i++) {
+				env.define(i, arguments[i]);
+			}
+			initializer.run(interpreter, env, instance);
+		}
+
+		return instance;
+	}
+
+	@Override
+	public Object call0(Interpreter interpreter) {
 		LoxInstance instance = new LoxInstance(this);
 
-		LoxFunction initializer = findMethod("init");
 		if (initializer != null) {
-			initializer.bind(instance).call(interpreter, arguments);
+			initializer.run(interpreter, initializer.frame(instance), instance);
 		}
 
 		return instance;
 	}
+
+	// With arguments, the arity check guarantees there is an initializer
+
+	@Override
+	public Object call1(Interpreter interpreter, Object a) {
+		LoxInstance instance = new LoxInstance(this);
+		Environment env = initializer.frame(instance);
+		env.define(0, a);
+		initializer.run(interpreter, env, instance);
+		return instance;
+	}
+
+	@Override
+	public Object call2(Interpreter interpreter, Object a, Object b) {
+		LoxInstance instance = new LoxInstance(this);
+		Environment env = initializer.frame(instance);
+		env.define(0, a);
+		env.define(1, b);
+		initializer.run(interpreter, env, instance);
+		return instance;
+	}
+
+	@Override
+	public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+		LoxInstance instance = new LoxInstance(this);
+		Environment env = initializer.frame(instance);
+		env.define(0, a);
+		env.define(1, b);
+		env.define(2, c);
+		initializer.run(interpreter, env, instance);
+		return instance;
+	}
+
+	@Override
+	public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+		LoxInstance instance = new LoxInstance(this);
+		Environment env = initializer.frame(instance);
+		env.define(0, a);
+		env.define(1, b);
+		env.define(2, c);
+		env.define(3, d);
+		initializer.run(interpreter, env, instance);
+		return instance;
+	}
 }
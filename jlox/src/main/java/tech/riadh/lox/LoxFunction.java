@@ -1,24 +1,42 @@
 package tech.riadh.lox;
 
-import java.util.List;
-
 import tech.riadh.lox.Stmt.Function;
 
 class LoxFunction implements LoxCallable {
-	private final Stmt.Function declaration;
-	private final Environment closure;
-	private final boolean isInitializer;
+	final Stmt.Function declaration;
+	final Environment closure;
+
+	/**
+	 * The variables captured by a function created by the {@link VM}, which has
+	 * no closure environment.
+	 */
+	final VM.Upvalue[] upvalues;
+	final boolean isInitializer;
+
+	/**
+	 * The instance a method is bound to, null for functions and unbound methods.
+	 */
+	final LoxInstance receiver;
 
 	LoxFunction(Function declaration, Environment closure, boolean isInitializer) {
+		this(declaration, closure, null, isInitializer, null);
+	}
+
+	LoxFunction(Function declaration, VM.Upvalue[] upvalues, boolean isInitializer) {
+		this(declaration, null, upvalues, isInitializer, null);
+	}
+
+	private LoxFunction(Function declaration, Environment closure, VM.Upvalue[] upvalues, boolean isInitializer,
+			LoxInstance receiver) {
 		this.declaration = declaration;
 		this.closure = closure;
+		this.upvalues = upvalues;
 		this.isInitializer = isInitializer;
+		this.receiver = receiver;
 	}
 
 	LoxFunction bind(LoxInstance instance) {
-		Environment environment = new Environment(closure);
-		environment.define("this", instance);
-		return new LoxFunction(declaration, environment, isInitializer);
+		return new LoxFunction(declaration, closure, upvalues, isInitializer, instance);
 	}
 
 	@Override
@@ -27,31 +45,153 @@ class LoxFunction implements LoxCallable {
 	}
 
 	@Override
-	public Object call(Interpreter interpreter, List<Object> arguments) {
-		Environment env = new Environment(closure);
+	public Object call(Interpreter interpreter, Object[] arguments) {
+		Environment env = frame(receiver);
+		for (int i = 0; i < arguments.length; i++) {
+			env.define(i, arguments[i]);
+		}
+		return run(interpreter, env, receiver);
+	}
+
+	@Override
+	public Object call0(Interpreter interpreter) {
+		return run(interpreter, frame(receiver), receiver);
+	}
+
+	@Override
+	public Object call1(Interpreter interpreter, Object a) {
+		Environment env = frame(receiver);
+		env.define(0, a);
+		return run(interpreter, env, receiver);
+	}
+
+	@Override
+	public Object call2(Interpreter interpreter, Object a, Object b) {
+		Environment env = frame(receiver);
+		env.define(0, a);
+		env.define(1, b);
+		return run(interpreter, env, receiver);
+	}
+
+	@Override
+	public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+		Environment env = frame(receiver);
+		env.define(0, a);
+		env.define(1, b);
+		env.define(2, c);
+		return run(interpreter, env, receiver);
+	}
+
+	@Override
+	public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+		Environment env = frame(receiver);
+		env.define(0, a);
+		env.define(1, b);
+		env.define(2, c);
+		env.define(3, d);
+		return run(interpreter, env, receiver);
+	}
+
+	/**
+	 * Creates the environment of a call. Parameters occupy its first slots, which
+	 * the caller fills with the arguments, followed by "this" for methods.
+	 *
+	 * @param receiver The instance "this" refers to, or null for functions
+	 * @return The environment to run the body in
+	 */
+	Environment frame(LoxInstance receiver) {
+		Environment env = new Environment(closure, declaration.localCount);
+		if (receiver != null) {
+			env.define(declaration.params.size(), receiver);
+		}
+		return env;
+	}
 
-		for (int i = 0; i < declaration.params.size(); i++) {
-			env.define(declaration.params.get(i).lexeme, arguments.get(i));
+	/**
+	 * Runs the body of the function in an environment created by
+	 * {@link #frame(LoxInstance)}.
+	 *
+	 * @param interpreter The interpreter running the call
+	 * @param env         The environment of the call, with the arguments bound
+	 * @param receiver    The receiver the environment was created with
+	 * @return The returned value
+	 */
+	Object run(Interpreter interpreter, Environment env, LoxInstance receiver) {
+		if (interpreter.profiler != null) {
+			return runProfiled(interpreter, env, receiver);
+		}
+		if (interpreter.sampler != null) {
+			return runSampled(interpreter, env, receiver);
 		}
+		return runBody(interpreter, env, receiver);
+	}
 
+	private Object runProfiled(Interpreter interpreter, Environment env, LoxInstance receiver) {
+		Profiler profiler = interpreter.profiler;
+		profiler.enter(declaration);
 		try {
-			interpreter.executeBlock(declaration.body, env);
-		} catch (Return e) {
-			if (isInitializer) {
-				return closure.getAt(0, "this");
-			}
-			return e.value;
+			return runBody(interpreter, env, receiver);
+		} finally {
+			// Exits the function a tail call ended in, if any, also when a runtime
+			// error unwinds the call
+			profiler.exit();
 		}
+	}
 
-		if (isInitializer) {
-			return closure.getAt(0, "this");
+	private Object runSampled(Interpreter interpreter, Environment env, LoxInstance receiver) {
+		Sampler sampler = interpreter.sampler;
+		sampler.enter(declaration);
+		try {
+			return runBody(interpreter, env, receiver);
+		} finally {
+			// Runtime errors unwind the stack the sampler sees too
+			sampler.exit();
 		}
+	}
+
+	private Object runBody(Interpreter interpreter, Environment env, LoxInstance receiver) {
+		LoxFunction function = this;
+		for (;;) {
+			Stmt.Function declaration = function.declaration;
+			if (declaration.compiled == null && interpreter.jit != null) {
+				interpreter.jit.countCall(declaration);
+			}
 
-		return null;
+			if (declaration.compiled != null) {
+				Object value = declaration.compiled.run(interpreter, env);
+				if (value != Jit.TAIL_CALL) {
+					return function.isInitializer ? receiver : value;
+				}
+			} else {
+				Completion completion = interpreter.executeBlock(declaration.body, env);
+				if (completion != Completion.TAIL_CALL) {
+					Object value = null;
+					if (completion == Completion.RETURN) {
+						value = interpreter.takeReturnValue();
+					}
+					return function.isInitializer ? receiver : value;
+				}
+			}
+
+			// Run the callee in place of the returning function
+			function = interpreter.tailFunction;
+			env = interpreter.tailEnvironment;
+			receiver = interpreter.tailReceiver;
+			interpreter.tailFunction = null;
+			interpreter.tailEnvironment = null;
+			interpreter.tailReceiver = null;
+			if (interpreter.profiler != null) {
+				interpreter.profiler.exit();
+				interpreter.profiler.enter(function.declaration);
+			}
+			if (interpreter.sampler != null) {
+				interpreter.sampler.replace(function.declaration);
+			}
+		}
 	}
 
 	@Override
 	public String toString() {
-		return "<fn " + declaration.name.lexeme + ">";
+		return "<fn " + declaration.name.lexeme() + ">";
 	}
 }
@@ -1,31 +1,56 @@
 package tech.riadh.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class LoxInstance {
-	private final Map<String, Object> fields = new HashMap<>();
-	private LoxClass loxClass;
+	private static final Object[] NO_FIELDS = new Object[0];
+
+	/**
+	 * The shape giving the slot of each field in {@link #fields}.
+	 */
+	Shape shape;
+	Object[] fields = NO_FIELDS;
+	final LoxClass loxClass;
 
 	LoxInstance(LoxClass loxClass) {
 		this.loxClass = loxClass;
+		this.shape = loxClass.shape;
 	}
 
 	Object get(Token name) {
-		if (fields.containsKey(name.lexeme)) {
-			return fields.get(name.lexeme);
+		int slot = shape.slotOf(name.symbol);
+		if (slot != -1) {
+			return fields[slot];
 		}
 
-		LoxFunction method = loxClass.findMethod(name.lexeme);
+		LoxFunction method = loxClass.findMethod(name.symbol);
 		if (method != null) {
 			return method.bind(this);
 		}
 
-		throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+		throw new RuntimeError(name, "Undefined property '" + name.lexeme() + "'.");
 	}
 
 	void set(Token name, Object value) {
-		fields.put(name.lexeme, value);
+		int slot = shape.slotOf(name.symbol);
+		if (slot == -1) {
+			slot = shape.size();
+			reshape(shape.withField(name.symbol));
+		}
+		fields[slot] = value;
+	}
+
+	/**
+	 * Moves the instance to a shape with more fields, growing the field storage
+	 * if needed.
+	 *
+	 * @param shape The new shape of the instance
+	 */
+	void reshape(Shape shape) {
+		this.shape = shape;
+		if (fields.length < shape.size()) {
+			fields = Arrays.copyOf(fields, Math.max(shape.size(), fields.length * 2));
+		}
 	}
 
 	@Override
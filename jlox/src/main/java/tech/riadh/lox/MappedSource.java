@@ -0,0 +1,86 @@
+package tech.riadh.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The source of a script read straight from a memory-mapped file.
+ *
+ * Most scripts are plain ASCII, where each byte is a character, so the scanner
+ * reads the mapped bytes in place without decoding or copying the file. Other
+ * scripts are decoded into a char buffer with the default charset, like the
+ * rest of the interpreter's input.
+ */
+final class MappedSource implements CharSequence {
+	private final ByteBuffer bytes;
+
+	private MappedSource(ByteBuffer bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Maps a script file into memory.
+	 *
+	 * @param path The path of the script
+	 * @return The characters of the script
+	 * @throws IOException If the file can't be read
+	 */
+	static CharSequence map(Path path) throws IOException {
+		ByteBuffer bytes;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// The mapping stays valid after the channel is closed
+			bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (isAscii(bytes)) {
+			return new MappedSource(bytes);
+		}
+		return Charset.defaultCharset().decode(bytes);
+	}
+
+	/**
+	 * Checks whether all the bytes are ASCII characters, eight at a time.
+	 */
+	private static boolean isAscii(ByteBuffer bytes) {
+		int length = bytes.limit();
+		int i = 0;
+		for (; i + 8 <= length; i += 8) {
+			if ((bytes.getLong(i) & 0x8080808080808080L) != 0) {
+				return false;
+			}
+		}
+		for (; i < length; i++) {
+			if (bytes.get(i) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int length() {
+		return bytes.limit();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) bytes.get(index);
+	}
+
+	@Override
+	public String subSequence(int start, int end) {
+		byte[] chars = new byte[end - start];
+		bytes.get(start, chars);
+		// Every byte is ASCII, so this is a plain copy into a compact string
+		return new String(chars, StandardCharsets.ISO_8859_1);
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, length());
+	}
+}
@@ -0,0 +1,220 @@
+package tech.riadh.lox;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the scripts a program imports.
+ *
+ * Each script is scanned, parsed and resolved on a thread pool as soon as some
+ * module imports it, so independent modules go through the front end
+ * concurrently. Modules are cached by path, which loads every file only once
+ * however many modules import it.
+ *
+ * All modules share the global environment. The loader gives them to the
+ * interpreter in dependency order, each module after the modules it imports,
+ * and each one only the first time it's needed.
+ */
+class ModuleLoader {
+
+	/**
+	 * A loaded script, along with the modules it imports.
+	 */
+	static class Module {
+		/**
+		 * The path of the script, or null for code typed at the prompt.
+		 */
+		final Path path;
+		final List<Stmt> statements;
+
+		/**
+		 * The errors of the script, which its imports may add to when they're
+		 * scheduled.
+		 */
+		final CompileErrors errors;
+
+		/**
+		 * The module each import statement of the script loads, in order.
+		 */
+		final Map<Stmt.Import, Future<Module>> imports = new LinkedHashMap<>();
+
+		Module(Path path, List<Stmt> statements, CompileErrors errors) {
+			this.path = path;
+			this.statements = statements;
+			this.errors = errors;
+		}
+	}
+
+	private final ExecutorService pool;
+	private final Map<Path, Future<Module>> cache = new ConcurrentHashMap<>();
+
+	/**
+	 * The cache of compiled scripts, or null to compile every script.
+	 */
+	private final ProgramCache programCache;
+
+	/**
+	 * The modules already handed out by {@link #schedule(Module)}.
+	 */
+	private final Set<Module> scheduled = new HashSet<>();
+
+	/**
+	 * Constructs a loader.
+	 *
+	 * @param stackSize    The stack size of the threads running the front end,
+	 *                     which bounds how deeply the code can nest
+	 * @param programCache The cache of compiled scripts, or null to compile every
+	 *                     script
+	 */
+	ModuleLoader(long stackSize, ProgramCache programCache) {
+		this.programCache = programCache;
+		pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+			Thread thread = new Thread(null, task, "lox-loader", stackSize);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Loads the main script of a program and starts loading the modules it
+	 * imports.
+	 *
+	 * @param path The path of the script
+	 * @return The module of the script
+	 * @throws IOException If the script can't be read
+	 */
+	Module loadMain(Path path) throws IOException {
+		try {
+			return load(path, true).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading " + path + ".");
+		}
+	}
+
+	/**
+	 * Stops the threads of the loader, once the program is done loading modules.
+	 */
+	void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Compiles code typed at the prompt, which imports scripts relative to the
+	 * working directory, and starts loading the modules it imports.
+	 */
+	Module compile(CharSequence source) {
+		CompileErrors errors = new CompileErrors(null);
+		return module(null, Lox.compile(source, errors), errors);
+	}
+
+	/**
+	 * Starts loading a module, unless it's loading or loaded already.
+	 *
+	 * @param main Whether the module is the main script, whose errors aren't
+	 *             named after its path
+	 */
+	private Future<Module> load(Path path, boolean main) {
+		return cache.computeIfAbsent(path.toAbsolutePath().normalize(),
+				p -> pool.submit(() -> compile(p, main)));
+	}
+
+	private Module compile(Path path, boolean main) throws IOException {
+		CompileErrors errors = new CompileErrors(main ? null : path);
+		if (programCache != null) {
+			return module(path, programCache.compile(path, errors), errors);
+		}
+		return module(path, Lox.compile(MappedSource.map(path), errors), errors);
+	}
+
+	/**
+	 * Creates the module of a compiled script and starts loading the modules it
+	 * imports.
+	 */
+	private Module module(Path path, List<Stmt> statements, CompileErrors errors) {
+		Module module = new Module(path, statements, errors);
+		Path directory = path != null ? path.getParent() : Paths.get("").toAbsolutePath();
+		for (Stmt stmt : module.statements) {
+			if (stmt instanceof Stmt.Import) {
+				Stmt.Import importStmt = (Stmt.Import) stmt;
+				module.imports.put(importStmt, load(directory.resolve((String) importStmt.path.literal), false));
+			}
+		}
+		return module;
+	}
+
+	/**
+	 * Waits for the modules a module depends on to load, and returns the ones
+	 * not scheduled yet in the order they should run: every module follows the
+	 * modules it imports, and the given module comes last.
+	 *
+	 * @param main The module to run
+	 * @return The modules to run, in order
+	 */
+	List<Module> schedule(Module main) {
+		List<Module> order = new ArrayList<>();
+		schedule(main, new HashSet<>(), order);
+		return order;
+	}
+
+	private void schedule(Module module, Set<Module> importing, List<Module> order) {
+		if (scheduled.contains(module)) {
+			return;
+		}
+
+		importing.add(module);
+		for (Map.Entry<Stmt.Import, Future<Module>> entry : module.imports.entrySet()) {
+			Module dependency = await(module, entry.getKey(), entry.getValue());
+			if (dependency == null) {
+				continue;
+			}
+			if (importing.contains(dependency)) {
+				Lox.error(module.errors, entry.getKey().keyword, "Circular import of '" + entry.getKey().path.literal + "'.");
+				continue;
+			}
+			schedule(dependency, importing, order);
+		}
+		importing.remove(module);
+
+		scheduled.add(module);
+		order.add(module);
+	}
+
+	/**
+	 * Waits for a module imported by another one to load.
+	 *
+	 * @return The module, or null if it couldn't be loaded
+	 */
+	private static Module await(Module importer, Stmt.Import stmt, Future<Module> module) {
+		try {
+			return module.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				Lox.error(importer.errors, stmt.path, "Can't read module '" + stmt.path.literal + "'.");
+				return null;
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Lox.error(importer.errors, stmt.path, "Interrupted while loading module.");
+			return null;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package tech.riadh.lox;
+
+/**
+ * Instructions of the bytecode {@link VM}, modeled after clox's OpCode. Each
+ * instruction is a single byte followed by its operands. Count and upvalue
+ * operands are a single byte; slots, symbols, jump offsets and indexes into
+ * the chunk's constant pool take two bytes, most significant byte first.
+ */
+final class OpCode {
+	/** CONSTANT index: pushes a constant. */
+	static final byte CONSTANT = 0;
+	/** Pushes nil. */
+	static final byte NIL = 1;
+	/** Pushes true. */
+	static final byte TRUE = 2;
+	/** Pushes false. */
+	static final byte FALSE = 3;
+	/** Pops the top of the stack. */
+	static final byte POP = 4;
+
+	/** GET_LOCAL slot: pushes a local variable of the current call frame. */
+	static final byte GET_LOCAL = 5;
+	/** SET_LOCAL slot: assigns the top of the stack to a local variable. */
+	static final byte SET_LOCAL = 6;
+	/** POP_LOCAL slot: pops the top of the stack into a local variable. */
+	static final byte POP_LOCAL = 7;
+	/** GET_UPVALUE index: pushes a variable captured by the current closure. */
+	static final byte GET_UPVALUE = 8;
+	/** SET_UPVALUE index: assigns the top of the stack to a captured variable. */
+	static final byte SET_UPVALUE = 9;
+	/** Closes the upvalue of the local on top of the stack, and pops it. */
+	static final byte CLOSE_UPVALUE = 10;
+	/** GET_GLOBAL symbol: pushes a global variable. */
+	static final byte GET_GLOBAL = 11;
+	/** SET_GLOBAL symbol: assigns the top of the stack to a global variable. */
+	static final byte SET_GLOBAL = 12;
+	/** DEFINE_GLOBAL symbol: pops a value into a global variable. */
+	static final byte DEFINE_GLOBAL = 13;
+
+	/** GET_PROPERTY name: replaces an instance by one of its properties. */
+	static final byte GET_PROPERTY = 14;
+	/** SET_PROPERTY name: pops a value and an instance and sets a field. */
+	static final byte SET_PROPERTY = 15;
+	/** GET_SUPER name: pops a superclass and a receiver, pushes a bound method. */
+	static final byte GET_SUPER = 16;
+
+	static final byte EQUAL = 17;
+	static final byte NOT_EQUAL = 18;
+	static final byte GREATER = 19;
+	static final byte GREATER_EQUAL = 20;
+	static final byte LESS = 21;
+	static final byte LESS_EQUAL = 22;
+	static final byte ADD = 23;
+	static final byte SUBTRACT = 24;
+	static final byte MULTIPLY = 25;
+	static final byte DIVIDE = 26;
+	static final byte NOT = 27;
+	static final byte NEGATE = 28;
+	static final byte PRINT = 29;
+
+	/** JUMP offset: jumps forward. */
+	static final byte JUMP = 30;
+	/** JUMP_IF_FALSE offset: jumps forward if the top of the stack is falsey. */
+	static final byte JUMP_IF_FALSE = 31;
+	/** POP_JUMP_IF_FALSE offset: pops a condition, jumps forward if it's falsey. */
+	static final byte POP_JUMP_IF_FALSE = 32;
+	/** LOOP offset: jumps backward. */
+	static final byte LOOP = 33;
+
+	/** CALL count: calls the callee below count arguments. */
+	static final byte CALL = 34;
+	/**
+	 * TAIL_CALL count: like CALL, but a Lox function callee replaces the current
+	 * call frame. Always followed by a RETURN.
+	 */
+	static final byte TAIL_CALL = 35;
+	/**
+	 * CLOSURE function count (isLocal index)*: pushes a function capturing count
+	 * variables, each one a local of the current frame or one of its upvalues.
+	 */
+	static final byte CLOSURE = 36;
+	/** METHOD function count (isLocal index)*: like CLOSURE for methods. */
+	static final byte METHOD = 37;
+	/** RETURN: returns the top of the stack from the current function. */
+	static final byte RETURN = 38;
+
+	/** INHERIT: checks that the top of the stack is a class. */
+	static final byte INHERIT = 39;
+	/** CLASS name count: pops count methods and pushes the new class. */
+	static final byte CLASS = 40;
+	/**
+	 * SUBCLASS name count: like CLASS, for the superclass left on the stack
+	 * below the methods.
+	 */
+	static final byte SUBCLASS = 41;
+
+	private OpCode() {
+	}
+}
@@ -0,0 +1,348 @@
+package tech.riadh.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tech.riadh.lox.Expr.Assign;
+import tech.riadh.lox.Expr.Binary;
+import tech.riadh.lox.Expr.Call;
+import tech.riadh.lox.Expr.Get;
+import tech.riadh.lox.Expr.Grouping;
+import tech.riadh.lox.Expr.Literal;
+import tech.riadh.lox.Expr.Logical;
+import tech.riadh.lox.Expr.Set;
+import tech.riadh.lox.Expr.Super;
+import tech.riadh.lox.Expr.This;
+import tech.riadh.lox.Expr.Unary;
+import tech.riadh.lox.Expr.Variable;
+import tech.riadh.lox.Stmt.Block;
+import tech.riadh.lox.Stmt.Class;
+import tech.riadh.lox.Stmt.Expression;
+import tech.riadh.lox.Stmt.For;
+import tech.riadh.lox.Stmt.Function;
+import tech.riadh.lox.Stmt.If;
+import tech.riadh.lox.Stmt.Import;
+import tech.riadh.lox.Stmt.Print;
+import tech.riadh.lox.Stmt.Return;
+import tech.riadh.lox.Stmt.Var;
+import tech.riadh.lox.Stmt.While;
+
+/**
+ * Rewrites a resolved program into a simpler one that behaves the same:
+ * <ul>
+ * <li>Operations on literals are folded into a literal, unless they would fail
+ * at runtime like {@code "a" - 1}.</li>
+ * <li>Branches and loops whose condition is a literal are pruned, as well as
+ * statements following a return.</li>
+ * <li>Local variables that are never read are removed along with the
+ * assignments to them, keeping the stored expressions that have side
+ * effects.</li>
+ * </ul>
+ *
+ * The rewritten program must be resolved again before running it, since new
+ * nodes carry no resolution.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+	/**
+	 * Optimizes a list of resolved statements.
+	 *
+	 * @return The optimized statements
+	 */
+	List<Stmt> optimize(List<Stmt> statements) {
+		List<Stmt> optimized = new ArrayList<>();
+		for (Stmt s : statements) {
+			Stmt statement = optimize(s);
+			if (statement != null) {
+				optimized.add(statement);
+			}
+			if (statement instanceof Return) {
+				// The statements that follow are unreachable
+				break;
+			}
+		}
+		return optimized;
+	}
+
+	@Override
+	public Stmt visitVarStatement(Var stmt) {
+		Expr initializer = stmt.initializer != null ? optimize(stmt.initializer) : null;
+		if (stmt.neverRead) {
+			if (initializer == null || isPure(initializer)) {
+				return null;
+			}
+			return new Expression(initializer);
+		}
+		return new Var(stmt.name, initializer);
+	}
+
+	@Override
+	public Stmt visitExpressionStatement(Expression stmt) {
+		Expr expression = optimize(stmt.expression);
+		return isPure(expression) ? null : new Expression(expression);
+	}
+
+	@Override
+	public Stmt visitPrintStatement(Print stmt) {
+		return new Print(optimize(stmt.expression));
+	}
+
+	@Override
+	public Stmt visitBlockStatement(Block stmt) {
+		List<Stmt> statements = optimize(stmt.statements);
+		return statements.isEmpty() ? null : new Block(statements);
+	}
+
+	@Override
+	public Stmt visitIfStatement(If stmt) {
+		Expr condition = optimize(stmt.condition);
+		if (condition instanceof Literal) {
+			Stmt branch = Interpreter.isTruthy(((Literal) condition).value) ? stmt.thenBranch : stmt.elseBranch;
+			return branch != null ? optimize(branch) : null;
+		}
+
+		Stmt thenBranch = optimize(stmt.thenBranch);
+		Stmt elseBranch = stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+		if (thenBranch == null && elseBranch == null) {
+			return isPure(condition) ? null : new Expression(condition);
+		}
+		return new If(condition, orEmpty(thenBranch), elseBranch);
+	}
+
+	@Override
+	public Stmt visitWhileStatement(While stmt) {
+		Expr condition = optimize(stmt.condition);
+		if (condition instanceof Literal && !Interpreter.isTruthy(((Literal) condition).value)) {
+			return null;
+		}
+		return new While(condition, orEmpty(optimize(stmt.body)));
+	}
+
+	@Override
+	public Stmt visitForStatement(For stmt) {
+		Stmt initializer = stmt.initializer != null ? optimize(stmt.initializer) : null;
+		Expr condition = stmt.condition != null ? optimize(stmt.condition) : null;
+		if (condition instanceof Literal && !Interpreter.isTruthy(((Literal) condition).value)) {
+			// Only the initializer runs, in the loop's own scope
+			if (initializer == null) {
+				return null;
+			}
+			List<Stmt> statements = new ArrayList<>();
+			statements.add(initializer);
+			return new Block(statements);
+		}
+
+		Expr increment = stmt.increment != null ? optimize(stmt.increment) : null;
+		if (increment != null && isPure(increment)) {
+			increment = null;
+		}
+		return new For(initializer, condition, increment, orEmpty(optimize(stmt.body)));
+	}
+
+	@Override
+	public Stmt visitFunctionStatement(Function stmt) {
+		return optimizeFunction(stmt);
+	}
+
+	@Override
+	public Stmt visitReturnStatement(Return stmt) {
+		return new Return(stmt.keyword, stmt.value != null ? optimize(stmt.value) : null);
+	}
+
+	@Override
+	public Stmt visitClassStatement(Class stmt) {
+		List<Function> methods = new ArrayList<>();
+		for (Function method : stmt.methods) {
+			methods.add(optimizeFunction(method));
+		}
+		return new Class(stmt.name, stmt.superclass, methods);
+	}
+
+	@Override
+	public Stmt visitImportStatement(Import stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Binary expr) {
+		Expr left = optimize(expr.left);
+		Expr right = optimize(expr.right);
+		if (left instanceof Literal && right instanceof Literal) {
+			Expr folded = fold(expr.operator.type, ((Literal) left).value, ((Literal) right).value);
+			if (folded != null) {
+				return folded;
+			}
+		}
+		return new Binary(left, expr.operator, right);
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Grouping expr) {
+		// The tree already encodes the grouping
+		return optimize(expr.expression);
+	}
+
+	@Override
+	public Expr visitLiteralExpr(Literal expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitLogicalExpr(Logical expr) {
+		Expr left = optimize(expr.left);
+		if (left instanceof Literal) {
+			boolean truthy = Interpreter.isTruthy(((Literal) left).value);
+			boolean shortCircuits = expr.operator.type == TokenType.OR ? truthy : !truthy;
+			return shortCircuits ? left : optimize(expr.right);
+		}
+		return new Logical(left, expr.operator, optimize(expr.right));
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Unary expr) {
+		Expr right = optimize(expr.right);
+		if (right instanceof Literal) {
+			Object value = ((Literal) right).value;
+			if (expr.operator.type == TokenType.BANG) {
+				return new Literal(!Interpreter.isTruthy(value));
+			}
+			if (expr.operator.type == TokenType.MINUS && value instanceof Double) {
+				return new Literal(-(double) value);
+			}
+		}
+		return new Unary(expr.operator, right);
+	}
+
+	@Override
+	public Expr visitVariableExpr(Variable expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitAssignExpr(Assign expr) {
+		Expr value = optimize(expr.value);
+		if (expr.deadStore) {
+			// An assignment evaluates to the assigned value
+			return value;
+		}
+		return new Assign(expr.name, value);
+	}
+
+	@Override
+	public Expr visitCallExpr(Call expr) {
+		Expr callee = optimize(expr.callee);
+		List<Expr> arguments = new ArrayList<>();
+		for (Expr arg : expr.arguments) {
+			arguments.add(optimize(arg));
+		}
+		return new Call(callee, expr.paren, arguments);
+	}
+
+	@Override
+	public Expr visitGetExpr(Get expr) {
+		return new Get(optimize(expr.object), expr.name);
+	}
+
+	@Override
+	public Expr visitSetExpr(Set expr) {
+		return new Set(optimize(expr.object), expr.name, optimize(expr.value));
+	}
+
+	@Override
+	public Expr visitThisExpr(This expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitSuperExpr(Super expr) {
+		return expr;
+	}
+
+	private Stmt optimize(Stmt stmt) {
+		Stmt optimized = stmt.accept(this);
+		if (optimized != null && optimized.line == 0) {
+			optimized.line = stmt.line;
+		}
+		return optimized;
+	}
+
+	private Expr optimize(Expr expr) {
+		return expr.accept(this);
+	}
+
+	private Function optimizeFunction(Function function) {
+		return new Function(function.name, function.params, optimize(function.body));
+	}
+
+	/**
+	 * Returns the given statement, or an empty block in place of a removed one.
+	 */
+	private static Stmt orEmpty(Stmt stmt) {
+		return stmt != null ? stmt : new Block(new ArrayList<>());
+	}
+
+	/**
+	 * Folds a binary operation on two literal values.
+	 *
+	 * @return The literal result, or null if the operation would fail at runtime
+	 */
+	private static Expr fold(TokenType operator, Object left, Object right) {
+		if (operator == TokenType.EQUAL_EQUAL) {
+			return new Literal(Interpreter.isEqual(left, right));
+		}
+		if (operator == TokenType.BANG_EQUAL) {
+			return new Literal(!Interpreter.isEqual(left, right));
+		}
+		if (operator == TokenType.PLUS && left instanceof String && right instanceof String) {
+			return new Literal((String) left + (String) right);
+		}
+		if (!(left instanceof Double && right instanceof Double)) {
+			return null;
+		}
+
+		double l = (double) left;
+		double r = (double) right;
+		return switch (operator) {
+			case PLUS -> new Literal(l + r);
+			case MINUS -> new Literal(l - r);
+			case STAR -> new Literal(l * r);
+			case SLASH -> new Literal(l / r);
+			case GREATER -> new Literal(l > r);
+			case GREATER_EQUAL -> new Literal(l >= r);
+			case LESS -> new Literal(l < r);
+			case LESS_EQUAL -> new Literal(l <= r);
+			default -> null;
+		};
+	}
+
+	/**
+	 * Checks whether evaluating an expression can have no effect and can't fail,
+	 * so that it can be dropped when its value is unused.
+	 */
+	private static boolean isPure(Expr expr) {
+		if (expr instanceof Literal || expr instanceof This) {
+			return true;
+		}
+		if (expr instanceof Variable) {
+			// Reading an undefined global fails
+			return ((Variable) expr).depth != -1;
+		}
+		if (expr instanceof Grouping) {
+			return isPure(((Grouping) expr).expression);
+		}
+		if (expr instanceof Unary) {
+			Unary unary = (Unary) expr;
+			return unary.operator.type == TokenType.BANG && isPure(unary.right);
+		}
+		if (expr instanceof Logical) {
+			return isPure(((Logical) expr).left) && isPure(((Logical) expr).right);
+		}
+		if (expr instanceof Binary) {
+			Binary binary = (Binary) expr;
+			TokenType type = binary.operator.type;
+			return (type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL) && isPure(binary.left)
+					&& isPure(binary.right);
+		}
+		return false;
+	}
+}
@@ -1,22 +1,27 @@
 package tech.riadh.lox;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
  * Lox's Recursive Descent Parser
+ *
+ * The parser pulls tokens from the scanner as it goes, keeping only the token
+ * it looks ahead at and the one it just consumed, so scanning and parsing run
+ * in one pass without holding every token of the program.
  */
 class Parser {
 
 	private static class ParseError extends RuntimeException {
 	}
 
-	private List<Token> tokens;
-	private int current = 0;
+	private final Scanner scanner;
+	private Token current;
+	private Token previous;
 
-	Parser(List<Token> tokens) {
-		this.tokens = tokens;
+	Parser(Scanner scanner) {
+		this.scanner = scanner;
+		this.current = scanner.nextToken();
 	}
 
 	/**
@@ -40,7 +45,7 @@ class Parser {
 	 * Parses a declaration statement. The declaration rule falls through to
 	 * parsing a statement if it doesn't match a function or a variable declaration.
 	 *
-	 * declaration -> funDecl | classDecl | varDecl | statement;
+	 * declaration -> importDecl | funDecl | classDecl | varDecl | statement;
 	 *
 	 * @return A function, variable, or an actual declaration statement. In case of
 	 *         a parse error, the parser goes into panic mode and synchronizes
@@ -48,22 +53,46 @@ class Parser {
 	 */
 	private Stmt declaration() {
 		try {
-			if (match(TokenType.FUN)) {
-				return function("function");
-			}
-			if (match(TokenType.CLASS)) {
-				return classDeclaration();
-			}
-			if (match(TokenType.VAR)) {
-				return varDeclaration();
+			int line = peek().line;
+			Stmt stmt;
+			if (match(TokenType.IMPORT)) {
+				stmt = importDeclaration();
+			} else if (match(TokenType.FUN)) {
+				stmt = function("function");
+			} else if (match(TokenType.CLASS)) {
+				stmt = classDeclaration();
+			} else if (match(TokenType.VAR)) {
+				stmt = varDeclaration();
+			} else {
+				return statement();
 			}
-			return statement();
+			stmt.line = line;
+			return stmt;
 		} catch (ParseError error) {
 			synchronize();
 			return null;
+		} catch (StackOverflowError error) {
+			Lox.error(peek(), "Code nested too deeply.");
+			synchronize();
+			return null;
 		}
 	}
 
+	/**
+	 * Parses and returns an import statement, the path of the imported script
+	 * being relative to the importing one.
+	 *
+	 * importDecl -> "import" STRING ";";
+	 *
+	 * @return An import statement
+	 */
+	private Stmt importDeclaration() {
+		Token keyword = previous();
+		Token path = consume(TokenType.STRING, "Expected module path after 'import'.");
+		consume(TokenType.SEMICOLON, "Expected ';' after module path.");
+		return new Stmt.Import(keyword, path);
+	}
+
 	/**
 	 * Parses and returns a function declaration statement.
 	 *
@@ -151,25 +180,25 @@ class Parser {
 	 *         statement.
 	 */
 	private Stmt statement() {
+		int line = peek().line;
+		Stmt stmt;
 		if (match(TokenType.IF)) {
-			return ifStatement();
-		}
-		if (match(TokenType.WHILE)) {
-			return whileStatement();
-		}
-		if (match(TokenType.FOR)) {
-			return forStatement();
-		}
-		if (match(TokenType.PRINT)) {
-			return printStatement();
-		}
-		if (match(TokenType.LEFT_BRACE)) {
-			return new Stmt.Block(block());
-		}
-		if (match(TokenType.RETURN)) {
-			return returnStatement();
+			stmt = ifStatement();
+		} else if (match(TokenType.WHILE)) {
+			stmt = whileStatement();
+		} else if (match(TokenType.FOR)) {
+			stmt = forStatement();
+		} else if (match(TokenType.PRINT)) {
+			stmt = printStatement();
+		} else if (match(TokenType.LEFT_BRACE)) {
+			stmt = new Stmt.Block(block());
+		} else if (match(TokenType.RETURN)) {
+			stmt = returnStatement();
+		} else {
+			stmt = expressionStatement();
 		}
-		return expressionStatement();
+		stmt.line = line;
+		return stmt;
 	}
 
 	/**
@@ -224,11 +253,9 @@ class Parser {
 	}
 
 	/**
-	 * Parses and returns a for statement. This method desugares the syntactic sugar
-	 * of the for loop into a primitive form that the interpreter already knows how
-	 * to execute, using statements and while loop.
-	 *
-	 * For instance:
+	 * Parses and returns a for statement. The loop keeps its own node rather than
+	 * being desugared into a while loop, so that the interpreter can run counted
+	 * loops like the following without re-evaluating the increment expression:
 	 * 
 	 * <pre>
 	 * <code>
@@ -237,20 +264,6 @@ class Parser {
 	 *}
 	 * </code>
 	 * </pre>
-	 * 
-	 * could be rewritten as:
-	 * 
-	 * <pre>
-	 * <code>
-	 *{
-	 *    var i = 0;
-	 *    while (i < 5) {
-	 *        print i;
-	 *        i = i + 1;
-	 *    }
-	 *}
-	 * </code>
-	 * </pre>
 	 *
 	 * forStmt -> "for" "(" (varDecl | exprStmt | ";" ) expression? ";"
 	 * expression? ")" statement;
@@ -269,6 +282,9 @@ class Parser {
 			initializer = expressionStatement();
 		}
 		// The semicolon after initializer is consumed in each case
+		if (initializer != null) {
+			initializer.line = previous().line;
+		}
 
 		Expr condition = null;
 		if (!check(TokenType.SEMICOLON)) {
@@ -284,21 +300,7 @@ class Parser {
 
 		Stmt body = statement();
 
-		// Desugaring for loop into already defined nodes
-		if (increment != null) {
-			body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-		}
-
-		if (condition == null) {
-			condition = new Expr.Literal(true);
-		}
-		body = new Stmt.While(condition, body);
-
-		if (initializer != null) {
-			body = new Stmt.Block(Arrays.asList(initializer, body));
-		}
-
-		return body;
+		return new Stmt.For(initializer, condition, increment, body);
 	}
 
 	/**
@@ -617,7 +619,7 @@ class Parser {
 			}
 
 			switch (peek().type) {
-				case CLASS, FUN, VAR, FOR, IF, WHILE, PRINT, RETURN -> {
+				case CLASS, FUN, IMPORT, VAR, FOR, IF, WHILE, PRINT, RETURN -> {
 					return;
 				}
 
@@ -673,22 +675,23 @@ class Parser {
 	 */
 	private Token advance() {
 		if (!isAtEnd()) {
-			current++;
+			previous = current;
+			current = scanner.nextToken();
 		}
 		return previous();
 	}
 
 	/*
-	 * Peeks the current token in the list, without consuming it.
+	 * Peeks the current token, without consuming it.
 	 *
 	 * @return the current token
 	 */
 	private Token peek() {
-		return tokens.get(current);
+		return current;
 	}
 
 	/*
-	 * Checks whether or not you reached the end of the tokens list.
+	 * Checks whether or not you reached the end of the tokens.
 	 * 
 	 * @return true if the end is reached, false otherwise
 	 */
@@ -702,7 +705,7 @@ class Parser {
 	 * @return the previous consumed token
 	 */
 	private Token previous() {
-		return tokens.get(current - 1);
+		return previous;
 	}
 
 }
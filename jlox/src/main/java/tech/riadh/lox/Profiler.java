@@ -0,0 +1,276 @@
+package tech.riadh.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures where the tree-walking interpreter spends its time and allocates
+ * memory, when a program runs with {@code --profile}.
+ *
+ * The interpreter reports when a statement starts and ends, and when a function
+ * is entered and exited. At each of these events, the time elapsed and the
+ * bytes the thread allocated since the previous event are charged to the line
+ * and the function running in between, which gives their self cost. The
+ * inclusive cost of a function runs from entering its outermost activation to
+ * exiting it, so recursion doesn't count twice.
+ *
+ * Functions are named after their declaration and the line it's on, code
+ * outside functions being {@code <script>}. Functions compiled by the
+ * {@link Jit} are measured as a whole, without their lines.
+ */
+class Profiler {
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	/**
+	 * Number of lines shown in the report.
+	 */
+	private static final int REPORTED_LINES = 30;
+
+	/**
+	 * The statistics of a function, or of the code outside functions.
+	 */
+	private static class Function {
+		final String name;
+		long calls = 0;
+		long selfTime = 0;
+		long totalTime = 0;
+		long selfAllocated = 0;
+		long totalAllocated = 0;
+		final Map<Integer, Line> lines = new HashMap<>();
+
+		/**
+		 * Number of activations of the function on the call stack.
+		 */
+		int active = 0;
+
+		Function(String name) {
+			this.name = name;
+		}
+
+		Line line(int number) {
+			Line line = lines.get(number);
+			if (line == null) {
+				line = new Line(this, number);
+				lines.put(number, line);
+			}
+			return line;
+		}
+	}
+
+	/**
+	 * The statistics of the statements starting on a line of a function.
+	 */
+	static class Line {
+		final Function function;
+		final int number;
+		long hits = 0;
+		long time = 0;
+		long allocated = 0;
+
+		Line(Function function, int number) {
+			this.function = function;
+			this.number = number;
+		}
+	}
+
+	/**
+	 * A node of the call tree, for the folded stacks.
+	 */
+	private static class Node {
+		final Function function;
+		final Map<Function, Node> children = new IdentityHashMap<>();
+		long time = 0;
+
+		Node(Function function) {
+			this.function = function;
+		}
+
+		Node child(Function function) {
+			Node child = children.get(function);
+			if (child == null) {
+				child = new Node(function);
+				children.put(function, child);
+			}
+			return child;
+		}
+	}
+
+	/**
+	 * What to restore when exiting a function.
+	 */
+	private static class Frame {
+		final Node caller;
+		final Line line;
+		final long time;
+		final long allocated;
+
+		Frame(Node caller, Line line, long time, long allocated) {
+			this.caller = caller;
+			this.line = line;
+			this.time = time;
+			this.allocated = allocated;
+		}
+	}
+
+	private final Function script = new Function("<script>");
+	private final Map<Stmt.Function, Function> functions = new IdentityHashMap<>();
+	private final Node root = new Node(script);
+	private final Deque<Frame> frames = new ArrayDeque<>();
+	private final long startTime;
+	private final long startAllocated;
+
+	private Node node = root;
+	private Line line = null;
+	private long lastTime;
+	private long lastAllocated;
+
+	Profiler() {
+		startTime = lastTime = System.nanoTime();
+		startAllocated = lastAllocated = THREADS.getCurrentThreadAllocatedBytes();
+		script.calls = 1;
+	}
+
+	/**
+	 * Starts measuring a statement.
+	 *
+	 * @return The line to give back to {@link #endStatement(Line)}
+	 */
+	Line statement(Stmt stmt) {
+		charge();
+		Line previous = line;
+		line = node.function.line(stmt.line);
+		line.hits++;
+		return previous;
+	}
+
+	/**
+	 * Stops measuring a statement, charging what follows to the enclosing one.
+	 *
+	 * @param previous The line {@link #statement(Stmt)} returned
+	 */
+	void endStatement(Line previous) {
+		charge();
+		line = previous;
+	}
+
+	void enter(Stmt.Function declaration) {
+		charge();
+		Function function = functions.get(declaration);
+		if (function == null) {
+			function = new Function(declaration.name.lexeme() + ":" + declaration.name.line);
+			functions.put(declaration, function);
+		}
+		function.calls++;
+		function.active++;
+		frames.push(new Frame(node, line, lastTime, lastAllocated));
+		node = node.child(function);
+		line = null;
+	}
+
+	void exit() {
+		charge();
+		Frame frame = frames.pop();
+		Function function = node.function;
+		if (--function.active == 0) {
+			function.totalTime += lastTime - frame.time;
+			function.totalAllocated += lastAllocated - frame.allocated;
+		}
+		node = frame.caller;
+		line = frame.line;
+	}
+
+	/**
+	 * Charges the time and the allocations since the previous event to the
+	 * running line and function.
+	 */
+	private void charge() {
+		long time = System.nanoTime();
+		long allocated = THREADS.getCurrentThreadAllocatedBytes();
+		long elapsed = time - lastTime;
+		long bytes = allocated - lastAllocated;
+		node.time += elapsed;
+		node.function.selfTime += elapsed;
+		node.function.selfAllocated += bytes;
+		if (line != null) {
+			line.time += elapsed;
+			line.allocated += bytes;
+		}
+		lastTime = time;
+		lastAllocated = allocated;
+	}
+
+	/**
+	 * Ends the profile.
+	 */
+	private void finish() {
+		charge();
+		script.totalTime = lastTime - startTime;
+		script.totalAllocated = lastAllocated - startAllocated;
+	}
+
+	/**
+	 * Prints the functions and the lines sorted by self time.
+	 */
+	void report(PrintStream out) {
+		finish();
+
+		List<Function> all = new ArrayList<>(functions.values());
+		all.add(script);
+		all.sort(Comparator.comparingLong((Function function) -> function.selfTime).reversed());
+		out.println("Functions by self time:");
+		out.printf("%12s %10s %10s %12s %12s  %s%n", "calls", "self ms", "total ms", "self KB", "total KB",
+				"function");
+		for (Function function : all) {
+			out.printf("%12d %10.1f %10.1f %12d %12d  %s%n", function.calls, function.selfTime / 1e6,
+					function.totalTime / 1e6, function.selfAllocated / 1024, function.totalAllocated / 1024,
+					function.name);
+		}
+
+		List<Line> lines = new ArrayList<>();
+		for (Function function : all) {
+			lines.addAll(function.lines.values());
+		}
+		lines.sort(Comparator.comparingLong((Line line) -> line.time).reversed());
+		out.println();
+		out.println("Lines by self time:");
+		out.printf("%12s %10s %12s  %s%n", "hits", "self ms", "self KB", "line");
+		for (Line line : lines.subList(0, Math.min(REPORTED_LINES, lines.size()))) {
+			out.printf("%12d %10.1f %12d  %s line %d%n", line.hits, line.time / 1e6, line.allocated / 1024,
+					line.function.name, line.number);
+		}
+	}
+
+	/**
+	 * Writes the self time of every call stack in microseconds, in the folded
+	 * format flame graph tools read: the functions of the stack from the
+	 * outermost, separated by semicolons, then the time.
+	 */
+	void writeFolded(Path file) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+			writeFolded(out, root, root.function.name);
+		}
+	}
+
+	private static void writeFolded(PrintWriter out, Node node, String stack) {
+		long micros = node.time / 1000;
+		if (micros > 0) {
+			out.println(stack + " " + micros);
+		}
+		for (Node child : node.children.values()) {
+			writeFolded(out, child, stack + ";" + child.function.name);
+		}
+	}
+}
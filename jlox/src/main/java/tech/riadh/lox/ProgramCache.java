@@ -0,0 +1,843 @@
+package tech.riadh.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tech.riadh.lox.Expr.Assign;
+import tech.riadh.lox.Expr.Binary;
+import tech.riadh.lox.Expr.Call;
+import tech.riadh.lox.Expr.Get;
+import tech.riadh.lox.Expr.Grouping;
+import tech.riadh.lox.Expr.Literal;
+import tech.riadh.lox.Expr.Logical;
+import tech.riadh.lox.Expr.Set;
+import tech.riadh.lox.Expr.Super;
+import tech.riadh.lox.Expr.This;
+import tech.riadh.lox.Expr.Unary;
+import tech.riadh.lox.Expr.Variable;
+import tech.riadh.lox.Stmt.Block;
+import tech.riadh.lox.Stmt.Class;
+import tech.riadh.lox.Stmt.Expression;
+import tech.riadh.lox.Stmt.For;
+import tech.riadh.lox.Stmt.Function;
+import tech.riadh.lox.Stmt.If;
+import tech.riadh.lox.Stmt.Import;
+import tech.riadh.lox.Stmt.Print;
+import tech.riadh.lox.Stmt.Return;
+import tech.riadh.lox.Stmt.Var;
+import tech.riadh.lox.Stmt.While;
+
+/**
+ * Caches compiled scripts on disk, so that running a script again skips
+ * scanning, parsing and resolving it.
+ *
+ * The compiled form of a script is its resolved syntax tree, written in a
+ * compact binary format to {@code .loxcache/<script>c} next to the script. The
+ * cached file records the hash of the source it was compiled from along with
+ * the build of jlox and the compiler options, and is only used while they all
+ * match.
+ */
+class ProgramCache {
+	/**
+	 * Identifies the build of the front end, by hashing the class files of the
+	 * classes deciding what a compiled program is and how it's written, so that
+	 * a cached program is only read back by the code that wrote it. Null if the
+	 * class files can't be read, in which case programs aren't cached.
+	 */
+	static final byte[] BUILD = build(Lox.class, Scanner.class, Parser.class, Resolver.class, Optimizer.class,
+			Expr.class, Stmt.class, Token.class, TokenType.class, ProgramCache.class);
+
+	private static final int MAGIC = 0x4c4f5843; // "LOXC"
+	private static final String DIRECTORY = ".loxcache";
+
+	private final boolean optimize;
+
+	/**
+	 * Constructs a cache for programs compiled with the given options.
+	 *
+	 * @param optimize Whether programs are optimized
+	 */
+	ProgramCache(boolean optimize) {
+		this.optimize = optimize;
+	}
+
+	/**
+	 * Returns the compiled program of a script, from the cache if it holds an up
+	 * to date one, otherwise compiling the script and caching the result unless
+	 * it has errors.
+	 *
+	 * @param script The path of the script
+	 * @param errors Gets the errors reported while compiling the script
+	 * @return The statements of the script
+	 * @throws IOException If the script can't be read
+	 */
+	List<Stmt> compile(Path script, CompileErrors errors) throws IOException {
+		if (BUILD == null) {
+			return Lox.compile(MappedSource.map(script), errors);
+		}
+
+		byte[] hash = hash(script);
+		Path file = cacheFile(script);
+		List<Stmt> statements = read(file, hash);
+		if (statements != null) {
+			return statements;
+		}
+
+		statements = Lox.compile(MappedSource.map(script), errors);
+		if (!errors.any()) {
+			write(file, hash, statements);
+		}
+		return statements;
+	}
+
+	private static Path cacheFile(Path script) {
+		Path absolute = script.toAbsolutePath();
+		return absolute.resolveSibling(DIRECTORY).resolve(absolute.getFileName() + "c");
+	}
+
+	private static byte[] build(java.lang.Class<?>... classes) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (java.lang.Class<?> c : classes) {
+				digestClassFile(digest, c);
+			}
+			return digest.digest();
+		} catch (IOException e) {
+			return null;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Adds the class file of a class and the ones of its nested classes to a
+	 * digest.
+	 */
+	private static void digestClassFile(MessageDigest digest, java.lang.Class<?> c) throws IOException {
+		String name = c.getName();
+		try (InputStream in = c.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+			if (in == null) {
+				throw new IOException("Can't read the class file of " + name + ".");
+			}
+			digest.update(in.readAllBytes());
+		}
+
+		java.lang.Class<?>[] nested = c.getDeclaredClasses();
+		Arrays.sort(nested, Comparator.comparing(java.lang.Class::getName));
+		for (java.lang.Class<?> n : nested) {
+			digestClassFile(digest, n);
+		}
+	}
+
+	private static byte[] hash(Path script) throws IOException {
+		try (FileChannel channel = FileChannel.open(script, StandardOpenOption.READ)) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads a cached program.
+	 *
+	 * @return The statements of the program, or null if the file is missing, out
+	 *         of date or unreadable
+	 */
+	private List<Stmt> read(Path file, byte[] hash) {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				return null;
+			}
+			byte[] build = new byte[BUILD.length];
+			in.readFully(build);
+			if (!Arrays.equals(BUILD, build) || in.readBoolean() != optimize) {
+				return null;
+			}
+			byte[] cachedHash = new byte[hash.length];
+			in.readFully(cachedHash);
+			if (!Arrays.equals(hash, cachedHash)) {
+				return null;
+			}
+			return new Reader(in).statements();
+		} catch (IOException | RuntimeException e) {
+			// A damaged cache only costs a compilation
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a program to the cache, replacing the previous version atomically so
+	 * that concurrent runs never read a partial file. Failing to write the cache
+	 * is not an error.
+	 */
+	private void write(Path file, byte[] hash, List<Stmt> statements) {
+		Path temporary = null;
+		try {
+			Files.createDirectories(file.getParent());
+			temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+				out.writeInt(MAGIC);
+				out.write(BUILD);
+				out.writeBoolean(optimize);
+				out.write(hash);
+				new Writer(out).statements(statements);
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// Run uncached
+			if (temporary != null) {
+				try {
+					Files.deleteIfExists(temporary);
+				} catch (IOException ignored) {
+					// Nothing else to do
+				}
+			}
+		}
+	}
+
+	// Tags of the nodes in the binary format
+	private static final int NONE = 0;
+	private static final int BINARY = 1;
+	private static final int GROUPING = 2;
+	private static final int LITERAL = 3;
+	private static final int LOGICAL = 4;
+	private static final int UNARY = 5;
+	private static final int VARIABLE = 6;
+	private static final int ASSIGN = 7;
+	private static final int CALL = 8;
+	private static final int GET = 9;
+	private static final int SET = 10;
+	private static final int THIS = 11;
+	private static final int SUPER = 12;
+	private static final int VAR = 13;
+	private static final int EXPRESSION = 14;
+	private static final int PRINT = 15;
+	private static final int BLOCK = 16;
+	private static final int IF = 17;
+	private static final int WHILE = 18;
+	private static final int FOR = 19;
+	private static final int FUNCTION = 20;
+	private static final int RETURN = 21;
+	private static final int CLASS = 22;
+	private static final int IMPORT = 23;
+
+	// Tags of literal values
+	private static final int NIL = 0;
+	private static final int FALSE = 1;
+	private static final int TRUE = 2;
+	private static final int NUMBER = 3;
+	private static final int STRING = 4;
+
+	/**
+	 * Writes a resolved tree. Strings are written once and then referred to by
+	 * index, and integers take one byte when small.
+	 */
+	static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+		private final DataOutputStream out;
+		private final Map<String, Integer> strings = new HashMap<>();
+
+		Writer(DataOutputStream out) {
+			this.out = out;
+		}
+
+		void statements(List<Stmt> statements) throws IOException {
+			try {
+				list(statements);
+			} catch (Failure e) {
+				throw e.error;
+			}
+		}
+
+		/**
+		 * Writes the declaration of a function on its own.
+		 */
+		void declaration(Function function) throws IOException {
+			try {
+				function(function);
+			} catch (Failure e) {
+				throw e.error;
+			}
+		}
+
+		@Override
+		public Void visitBinaryExpr(Binary expr) {
+			tag(BINARY);
+			expr(expr.left);
+			token(expr.operator);
+			expr(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitGroupingExpr(Grouping expr) {
+			tag(GROUPING);
+			expr(expr.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitLiteralExpr(Literal expr) {
+			tag(LITERAL);
+			value(expr.value);
+			return null;
+		}
+
+		@Override
+		public Void visitLogicalExpr(Logical expr) {
+			tag(LOGICAL);
+			expr(expr.left);
+			token(expr.operator);
+			expr(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitUnaryExpr(Unary expr) {
+			tag(UNARY);
+			token(expr.operator);
+			expr(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitVariableExpr(Variable expr) {
+			tag(VARIABLE);
+			token(expr.name);
+			resolution(expr);
+			return null;
+		}
+
+		@Override
+		public Void visitAssignExpr(Assign expr) {
+			tag(ASSIGN);
+			token(expr.name);
+			expr(expr.value);
+			resolution(expr);
+			bool(expr.deadStore);
+			return null;
+		}
+
+		@Override
+		public Void visitCallExpr(Call expr) {
+			tag(CALL);
+			expr(expr.callee);
+			token(expr.paren);
+			number(expr.arguments.size());
+			for (Expr argument : expr.arguments) {
+				expr(argument);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitGetExpr(Get expr) {
+			tag(GET);
+			expr(expr.object);
+			token(expr.name);
+			return null;
+		}
+
+		@Override
+		public Void visitSetExpr(Set expr) {
+			tag(SET);
+			expr(expr.object);
+			token(expr.name);
+			expr(expr.value);
+			return null;
+		}
+
+		@Override
+		public Void visitThisExpr(This expr) {
+			tag(THIS);
+			token(expr.keyword);
+			resolution(expr);
+			return null;
+		}
+
+		@Override
+		public Void visitSuperExpr(Super expr) {
+			tag(SUPER);
+			token(expr.keyword);
+			token(expr.method);
+			resolution(expr);
+			resolution(expr.receiver);
+			return null;
+		}
+
+		@Override
+		public Void visitVarStatement(Var stmt) {
+			tag(VAR);
+			token(stmt.name);
+			expr(stmt.initializer);
+			number(stmt.slot + 1);
+			bool(stmt.neverRead);
+			return null;
+		}
+
+		@Override
+		public Void visitExpressionStatement(Expression stmt) {
+			tag(EXPRESSION);
+			expr(stmt.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitPrintStatement(Print stmt) {
+			tag(PRINT);
+			expr(stmt.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitBlockStatement(Block stmt) {
+			tag(BLOCK);
+			list(stmt.statements);
+			number(stmt.localCount);
+			return null;
+		}
+
+		@Override
+		public Void visitIfStatement(If stmt) {
+			tag(IF);
+			expr(stmt.condition);
+			stmt(stmt.thenBranch);
+			stmt(stmt.elseBranch);
+			return null;
+		}
+
+		@Override
+		public Void visitWhileStatement(While stmt) {
+			tag(WHILE);
+			expr(stmt.condition);
+			stmt(stmt.body);
+			return null;
+		}
+
+		@Override
+		public Void visitForStatement(For stmt) {
+			tag(FOR);
+			stmt(stmt.initializer);
+			expr(stmt.condition);
+			expr(stmt.increment);
+			stmt(stmt.body);
+			number(stmt.localCount);
+			bool(stmt.counter != null);
+			if (stmt.counter != null) {
+				value(stmt.step);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitFunctionStatement(Function stmt) {
+			tag(FUNCTION);
+			function(stmt);
+			return null;
+		}
+
+		@Override
+		public Void visitReturnStatement(Return stmt) {
+			tag(RETURN);
+			token(stmt.keyword);
+			expr(stmt.value);
+			return null;
+		}
+
+		@Override
+		public Void visitClassStatement(Class stmt) {
+			tag(CLASS);
+			token(stmt.name);
+			expr(stmt.superclass);
+			number(stmt.methods.size());
+			for (Function method : stmt.methods) {
+				function(method);
+			}
+			number(stmt.slot + 1);
+			return null;
+		}
+
+		@Override
+		public Void visitImportStatement(Import stmt) {
+			tag(IMPORT);
+			token(stmt.keyword);
+			token(stmt.path);
+			return null;
+		}
+
+		private void function(Function function) {
+			token(function.name);
+			number(function.params.size());
+			for (Token param : function.params) {
+				token(param);
+			}
+			list(function.body);
+			number(function.slot + 1);
+			number(function.localCount);
+		}
+
+		private void list(List<Stmt> statements) {
+			number(statements.size());
+			for (Stmt stmt : statements) {
+				stmt(stmt);
+			}
+		}
+
+		private void stmt(Stmt stmt) {
+			if (stmt == null) {
+				tag(NONE);
+			} else {
+				stmt.accept(this);
+				number(stmt.line);
+			}
+		}
+
+		private void expr(Expr expr) {
+			if (expr == null) {
+				tag(NONE);
+			} else {
+				expr.accept(this);
+			}
+		}
+
+		private void resolution(Expr.Resolvable expr) {
+			number(expr.depth + 1);
+			number(expr.slot);
+		}
+
+		private void token(Token token) {
+			// By name, which stays valid when token types are added
+			string(token.type.name());
+			string(token.lexeme());
+			value(token.literal);
+			number(token.line);
+		}
+
+		private void value(Object value) {
+			try {
+				if (value == null) {
+					out.writeByte(NIL);
+				} else if (value instanceof Boolean) {
+					out.writeByte((boolean) value ? TRUE : FALSE);
+				} else if (value instanceof Double) {
+					out.writeByte(NUMBER);
+					out.writeDouble((double) value);
+				} else {
+					out.writeByte(STRING);
+					string((String) value);
+				}
+			} catch (IOException e) {
+				throw new Failure(e);
+			}
+		}
+
+		private void string(String string) {
+			Integer index = strings.get(string);
+			if (index != null) {
+				number(index + 1);
+				return;
+			}
+			strings.put(string, strings.size());
+			number(0);
+			// Not writeUTF, which is limited to 64KB and string literals aren't
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			try {
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			} catch (IOException e) {
+				throw new Failure(e);
+			}
+		}
+
+		private void bool(boolean value) {
+			tag(value ? 1 : 0);
+		}
+
+		private void tag(int tag) {
+			try {
+				out.writeByte(tag);
+			} catch (IOException e) {
+				throw new Failure(e);
+			}
+		}
+
+		/**
+		 * Writes a non-negative integer in groups of seven bits, low ones first.
+		 */
+		private void number(int value) {
+			try {
+				while ((value & ~0x7f) != 0) {
+					out.writeByte((value & 0x7f) | 0x80);
+					value >>>= 7;
+				}
+				out.writeByte(value);
+			} catch (IOException e) {
+				throw new Failure(e);
+			}
+		}
+	}
+
+	/**
+	 * Carries an I/O error out of the visitor methods of the {@link Writer}.
+	 */
+	private static class Failure extends RuntimeException {
+		final IOException error;
+
+		Failure(IOException error) {
+			super(null, null, false, false);
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Reads back a tree written by the {@link Writer}, restoring its resolution.
+	 */
+	static class Reader {
+		private final DataInputStream in;
+		private final List<String> strings = new ArrayList<>();
+
+		/**
+		 * The function whose body is being read, for the loops it contains.
+		 */
+		private Function function = null;
+
+		Reader(DataInputStream in) {
+			this.in = in;
+		}
+
+		List<Stmt> statements() throws IOException {
+			List<Stmt> statements = new ArrayList<>();
+			list(statements);
+			return statements;
+		}
+
+		/**
+		 * Reads a function declaration written by
+		 * {@link Writer#declaration(Function)}.
+		 */
+		Function declaration() throws IOException {
+			return function();
+		}
+
+		private void list(List<Stmt> statements) throws IOException {
+			int size = number();
+			for (int i = 0; i < size; i++) {
+				statements.add(stmt());
+			}
+		}
+
+		private Stmt stmt() throws IOException {
+			Stmt stmt = node();
+			if (stmt != null) {
+				stmt.line = number();
+			}
+			return stmt;
+		}
+
+		private Stmt node() throws IOException {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+				case NONE:
+					return null;
+				case VAR: {
+					Var stmt = new Var(token(), expr());
+					stmt.slot = number() - 1;
+					stmt.neverRead = in.readBoolean();
+					return stmt;
+				}
+				case EXPRESSION:
+					return new Expression(expr());
+				case PRINT:
+					return new Print(expr());
+				case BLOCK: {
+					List<Stmt> statements = new ArrayList<>();
+					list(statements);
+					Block stmt = new Block(statements);
+					stmt.localCount = number();
+					return stmt;
+				}
+				case IF:
+					return new If(expr(), stmt(), stmt());
+				case WHILE: {
+					While stmt = new While(expr(), stmt());
+					stmt.function = function;
+					return stmt;
+				}
+				case FOR: {
+					For stmt = new For(stmt(), expr(), expr(), stmt());
+					stmt.localCount = number();
+					stmt.function = function;
+					if (in.readBoolean()) {
+						stmt.counter = (Variable) ((Binary) stmt.condition).left;
+						stmt.step = (double) value();
+					}
+					return stmt;
+				}
+				case FUNCTION:
+					return function();
+				case RETURN:
+					return new Return(token(), expr());
+				case CLASS: {
+					Token name = token();
+					Variable superclass = (Variable) expr();
+					int count = number();
+					List<Function> methods = new ArrayList<>(count);
+					for (int i = 0; i < count; i++) {
+						methods.add(function());
+					}
+					Class stmt = new Class(name, superclass, methods);
+					stmt.slot = number() - 1;
+					return stmt;
+				}
+				case IMPORT:
+					return new Import(token(), token());
+				default:
+					throw new IOException("Unknown statement tag " + tag + ".");
+			}
+		}
+
+		private Function function() throws IOException {
+			Token name = token();
+			int count = number();
+			List<Token> params = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				params.add(token());
+			}
+
+			// The loops of the body refer to the function, so it exists first
+			Function stmt = new Function(name, params, new ArrayList<>());
+			Function enclosing = function;
+			function = stmt;
+			list(stmt.body);
+			function = enclosing;
+
+			stmt.slot = number() - 1;
+			stmt.localCount = number();
+			return stmt;
+		}
+
+		private Expr expr() throws IOException {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+				case NONE:
+					return null;
+				case BINARY:
+					return new Binary(expr(), token(), expr());
+				case GROUPING:
+					return new Grouping(expr());
+				case LITERAL:
+					return new Literal(value());
+				case LOGICAL:
+					return new Logical(expr(), token(), expr());
+				case UNARY:
+					return new Unary(token(), expr());
+				case VARIABLE:
+					return resolution(new Variable(token()));
+				case ASSIGN: {
+					Assign expr = resolution(new Assign(token(), expr()));
+					expr.deadStore = in.readBoolean();
+					return expr;
+				}
+				case CALL: {
+					Expr callee = expr();
+					Token paren = token();
+					int count = number();
+					List<Expr> arguments = new ArrayList<>(count);
+					for (int i = 0; i < count; i++) {
+						arguments.add(expr());
+					}
+					return new Call(callee, paren, arguments);
+				}
+				case GET:
+					return new Get(expr(), token());
+				case SET:
+					return new Set(expr(), token(), expr());
+				case THIS:
+					return resolution(new This(token()));
+				case SUPER: {
+					Super expr = resolution(new Super(token(), token()));
+					resolution(expr.receiver);
+					return expr;
+				}
+				default:
+					throw new IOException("Unknown expression tag " + tag + ".");
+			}
+		}
+
+		private <T extends Expr.Resolvable> T resolution(T expr) throws IOException {
+			expr.depth = number() - 1;
+			expr.slot = number();
+			return expr;
+		}
+
+		private Token token() throws IOException {
+			TokenType type = TokenType.valueOf(string());
+			String lexeme = string();
+			Object literal = value();
+			return new Token(type, lexeme, literal, number());
+		}
+
+		private Object value() throws IOException {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+				case NIL:
+					return null;
+				case FALSE:
+					return false;
+				case TRUE:
+					return true;
+				case NUMBER:
+					return in.readDouble();
+				case STRING:
+					return string();
+				default:
+					throw new IOException("Unknown value tag " + tag + ".");
+			}
+		}
+
+		private String string() throws IOException {
+			int index = number();
+			if (index > 0) {
+				return strings.get(index - 1);
+			}
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			String string = new String(bytes, StandardCharsets.UTF_8);
+			strings.add(string);
+			return string;
+		}
+
+		private int number() throws IOException {
+			int value = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = in.readUnsignedByte();
+				value |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+		}
+	}
+}
@@ -1,8 +1,7 @@
 package tech.riadh.lox;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Stack;
 
 import tech.riadh.lox.Expr.Assign;
@@ -19,32 +18,100 @@ import tech.riadh.lox.Expr.Unary;
 import tech.riadh.lox.Expr.Variable;
 import tech.riadh.lox.Stmt.Block;
 import tech.riadh.lox.Stmt.Expression;
+import tech.riadh.lox.Stmt.For;
 import tech.riadh.lox.Stmt.Function;
 import tech.riadh.lox.Stmt.If;
+import tech.riadh.lox.Stmt.Import;
 import tech.riadh.lox.Stmt.Print;
 import tech.riadh.lox.Stmt.Return;
 import tech.riadh.lox.Stmt.Var;
 import tech.riadh.lox.Stmt.While;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+	/**
+	 * A local variable declared in a scope being resolved.
+	 */
+	private static class Local {
+		/**
+		 * Index of the variable's value in its scope's environment.
+		 */
+		final int slot;
+
+		/**
+		 * Whether or not the resolution of the variable's initializer is finished.
+		 */
+		boolean defined = false;
+
+		/**
+		 * The declaration of the variable if it was declared with var, in which case
+		 * the resolver tracks whether the variable is read and the assignments to it.
+		 */
+		Stmt.Var declaration = null;
+		boolean read = false;
+		List<Assign> assignments = null;
+
+		Local(int slot) {
+			this.slot = slot;
+		}
+	}
+
+	/**
+	 * A lexical scope being resolved.
+	 */
+	private static class Scope {
+		/**
+		 * Maps the symbol of each variable declared in this scope to its
+		 * {@link Local}.
+		 */
+		final SymbolMap<Local> locals = new SymbolMap<>();
+
+		/**
+		 * The scope owning the environment this scope's variables live in. A scope
+		 * that owns its environment is its own frame, a scope sharing the
+		 * environment of an enclosing scope has that scope's frame, and a global
+		 * block that declares nothing has no frame at all.
+		 */
+		final Scope frame;
+
+		/**
+		 * Number of slots handed out in the environment, only used on frames.
+		 */
+		int size = 0;
+
+		/**
+		 * Constructs a scope owning its own environment.
+		 */
+		Scope() {
+			frame = this;
+		}
+
+		/**
+		 * Constructs a scope whose variables live in the given frame.
+		 */
+		Scope(Scope frame) {
+			this.frame = frame;
+		}
+	}
+
 	/**
 	 * Stores scopes' mappings while resolving variables, each variable is
-	 * represented by its name and a boolean flag indicating whether or not the
-	 * resolution is finished.
+	 * represented by its name and the {@link Local} holding its slot and
+	 * resolution state. Slots are handed out in declaration order by the scope's
+	 * frame, so a frame's size is the number of variables declared in it and in
+	 * the scopes sharing its environment.
 	 */
-	private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+	private final Stack<Scope> scopes = new Stack<>();
 
-	private final Interpreter interpreter;
 	private FunctionType currentFunction = FunctionType.NONE;
 	private ClassType currentClass = ClassType.NONE;
-
-	Resolver(Interpreter interpreter) {
-		this.interpreter = interpreter;
-	}
+	private Stmt.Function currentDeclaration = null;
 
 	@Override
 	public Void visitVarStatement(Var stmt) {
-		declare(stmt.name);
+		stmt.slot = declare(stmt.name);
+		if (stmt.slot != -1) {
+			scopes.peek().locals.get(stmt.name.symbol).declaration = stmt;
+		}
 		if (stmt.initializer != null) {
 			resolve(stmt.initializer);
 		}
@@ -66,9 +133,19 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitBlockStatement(Block stmt) {
-		beginScope();
+		Scope enclosingFrame = scopes.isEmpty() ? null : scopes.peek().frame;
+		if (!declaresVariables(stmt.statements)) {
+			// Nothing to store, run the block in the enclosing environment
+			beginScope(enclosingFrame);
+		} else if (enclosingFrame != null && !declaresClosures(stmt.statements)) {
+			// No closure can capture the block's variables, so they can live in
+			// fresh slots of the enclosing environment
+			beginScope(enclosingFrame);
+		} else {
+			beginScope();
+		}
 		resolve(stmt.statements);
-		endScope();
+		stmt.localCount = endScope();
 		return null;
 	}
 
@@ -84,14 +161,41 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitWhileStatement(While stmt) {
+		stmt.function = currentDeclaration;
 		resolve(stmt.condition);
 		resolve(stmt.body);
 		return null;
 	}
 
+	@Override
+	public Void visitForStatement(For stmt) {
+		stmt.function = currentDeclaration;
+		Scope enclosingFrame = scopes.isEmpty() ? null : scopes.peek().frame;
+		if (!(stmt.initializer instanceof Var)) {
+			beginScope(enclosingFrame);
+		} else if (enclosingFrame != null && !declaresClosures(stmt.body)) {
+			beginScope(enclosingFrame);
+		} else {
+			beginScope();
+		}
+		if (stmt.initializer != null) {
+			resolve(stmt.initializer);
+		}
+		if (stmt.condition != null) {
+			resolve(stmt.condition);
+		}
+		if (stmt.increment != null) {
+			resolve(stmt.increment);
+		}
+		resolve(stmt.body);
+		stmt.localCount = endScope();
+		resolveCounter(stmt);
+		return null;
+	}
+
 	@Override
 	public Void visitFunctionStatement(Function stmt) {
-		declare(stmt.name);
+		stmt.slot = declare(stmt.name);
 		define(stmt.name);
 		resolveFunction(stmt, FunctionType.FUNCTION);
 		return null;
@@ -116,32 +220,27 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		ClassType enclosingClass = currentClass;
 		currentClass = ClassType.CLASS;
 
-		declare(stmt.name);
+		stmt.slot = declare(stmt.name);
 		define(stmt.name);
 
 		if (stmt.superclass != null) {
-			if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
+			if (stmt.name.symbol == stmt.superclass.name.symbol) {
 				Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
 			}
 			currentClass = ClassType.SUBCLASS;
 			resolve(stmt.superclass);
 			beginScope();
-			scopes.peek().put("super", true);
+			declareSynthetic("super");
 		}
 
-		beginScope();
-		scopes.peek().put("this", true);
-
 		for (Stmt.Function method : stmt.methods) {
 			FunctionType declaration = FunctionType.METHOD;
-			if (method.name.lexeme.equals("init")) {
+			if (method.name.symbol == SymbolTable.INIT) {
 				declaration = FunctionType.INITIALIZER;
 			}
 			resolveFunction(method, declaration);
 		}
 
-		endScope();
-
 		if (stmt.superclass != null) {
 			endScope();
 		}
@@ -150,6 +249,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		return null;
 	}
 
+	@Override
+	public Void visitImportStatement(Import stmt) {
+		if (!scopes.isEmpty() || currentFunction != FunctionType.NONE) {
+			Lox.error(stmt.keyword, "Can only import at the top level of a script.");
+		}
+		return null;
+	}
+
 	@Override
 	public Void visitBinaryExpr(Binary expr) {
 		resolve(expr.left);
@@ -183,7 +290,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitVariableExpr(Variable expr) {
-		if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+		if (!scopes.isEmpty() && scopes.peek().locals.containsKey(expr.name.symbol)
+				&& !scopes.peek().locals.get(expr.name.symbol).defined) {
 			Lox.error(expr.name, "Can't read local variable in its own initializer");
 		}
 		resolveLocal(expr, expr.name);
@@ -238,6 +346,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		}
 
 		resolveLocal(expr, expr.keyword);
+		resolveLocal(expr.receiver, expr.receiver.keyword);
 		return null;
 	}
 
@@ -252,6 +361,22 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		}
 	}
 
+	/**
+	 * Resolves the statements of a script, reporting code nested too deeply for
+	 * the stack as an error.
+	 */
+	void resolveScript(List<Stmt> statements) {
+		for (Stmt s : statements) {
+			try {
+				resolve(s);
+			} catch (StackOverflowError error) {
+				// The scopes are left in disarray, and the script won't run anyway
+				Lox.error(s.line, "Code nested too deeply.");
+				return;
+			}
+		}
+	}
+
 	/**
 	 * Resolves a single statement.
 	 */
@@ -267,17 +392,133 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	}
 
 	/**
-	 * Begins a new scope by pushing a new HashMap to the scopes stack.
+	 * Begins a new scope owning its environment by pushing it to the scopes
+	 * stack.
 	 */
 	private void beginScope() {
-		scopes.push(new HashMap<String, Boolean>());
+		scopes.push(new Scope());
+	}
+
+	/**
+	 * Begins a new scope sharing the environment of the given frame by pushing it
+	 * to the scopes stack.
+	 */
+	private void beginScope(Scope frame) {
+		scopes.push(new Scope(frame));
 	}
 
 	/**
 	 * Ends the current scope by popping it out from the stack.
+	 *
+	 * @return The number of slots the scope's environment needs, or 0 if the
+	 *         scope doesn't need an environment of its own
 	 */
-	private void endScope() {
-		scopes.pop();
+	private int endScope() {
+		Scope scope = scopes.pop();
+		for (Local local : scope.locals.values()) {
+			if (local.declaration != null) {
+				local.declaration.neverRead = !local.read;
+				if (local.assignments != null) {
+					for (Assign assignment : local.assignments) {
+						assignment.deadStore = !local.read;
+					}
+				}
+			}
+		}
+		return scope.frame == scope ? scope.size : 0;
+	}
+
+	/**
+	 * Recognizes a loop whose variable is compared to a bound with {@code <},
+	 * {@code <=}, {@code >} or {@code >=} and stepped by a number literal, as in
+	 * {@code for (var i = 0; i < n; i = i + 1)}, and records the loop variable
+	 * and step so that the interpreter can count the loop natively.
+	 */
+	private static void resolveCounter(For stmt) {
+		stmt.counter = null;
+		if (!(stmt.initializer instanceof Var var) || !(stmt.condition instanceof Binary condition)
+				|| !(stmt.increment instanceof Assign increment)) {
+			return;
+		}
+		TokenType comparison = condition.operator.type;
+		if (comparison != TokenType.LESS && comparison != TokenType.LESS_EQUAL && comparison != TokenType.GREATER
+				&& comparison != TokenType.GREATER_EQUAL) {
+			return;
+		}
+		if (!isLoopVariable(condition.left, var) || !isLoopVariable(increment, var)
+				|| !(increment.value instanceof Binary step) || !isLoopVariable(step.left, var)
+				|| !(step.right instanceof Literal literal) || !(literal.value instanceof Double)) {
+			return;
+		}
+
+		double amount = (double) literal.value;
+		if (step.operator.type == TokenType.PLUS) {
+			stmt.step = amount;
+		} else if (step.operator.type == TokenType.MINUS) {
+			stmt.step = -amount;
+		} else {
+			return;
+		}
+		stmt.counter = (Variable) condition.left;
+	}
+
+	private static boolean isLoopVariable(Expr expr, Var var) {
+		if (!(expr instanceof Expr.Resolvable resolvable) || resolvable.depth != 0 || resolvable.slot != var.slot) {
+			return false;
+		}
+		if (expr instanceof Variable) {
+			return ((Variable) expr).name.symbol == var.name.symbol;
+		}
+		return expr instanceof Assign && ((Assign) expr).name.symbol == var.name.symbol;
+	}
+
+	/**
+	 * Checks whether any of the given statements declares a variable directly in
+	 * the scope they belong to.
+	 */
+	private static boolean declaresVariables(List<Stmt> statements) {
+		for (Stmt s : statements) {
+			if (s instanceof Stmt.Var || s instanceof Stmt.Function || s instanceof Stmt.Class) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether the given statements, or any statement nested in them,
+	 * declare a function or a class. Lox has no function expressions, so when
+	 * this returns false no closure can capture variables of the scope the
+	 * statements belong to.
+	 */
+	private static boolean declaresClosures(List<Stmt> statements) {
+		for (Stmt s : statements) {
+			if (declaresClosures(s)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean declaresClosures(Stmt stmt) {
+		if (stmt instanceof Stmt.Function || stmt instanceof Stmt.Class) {
+			return true;
+		}
+		if (stmt instanceof Stmt.Block) {
+			return declaresClosures(((Stmt.Block) stmt).statements);
+		}
+		if (stmt instanceof Stmt.If) {
+			Stmt.If ifStmt = (Stmt.If) stmt;
+			return declaresClosures(ifStmt.thenBranch)
+					|| (ifStmt.elseBranch != null && declaresClosures(ifStmt.elseBranch));
+		}
+		if (stmt instanceof Stmt.While) {
+			return declaresClosures(((Stmt.While) stmt).body);
+		}
+		if (stmt instanceof Stmt.For) {
+			return declaresClosures(((Stmt.For) stmt).body);
+		}
+		return false;
 	}
 
 	/**
@@ -285,16 +526,32 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	 * The declared variable is marked as not ready yet while it still being
 	 * resolved by binding its name to false in the scope map. If there is no scope
 	 * in the scopes stack, this method does nothing.
+	 *
+	 * @return The slot assigned to the variable, or -1 if it is a global
 	 */
-	private void declare(Token name) {
+	private int declare(Token name) {
 		if (scopes.isEmpty()) {
-			return;
+			return -1;
 		}
-		Map<String, Boolean> scope = scopes.peek();
-		if (scope.containsKey(name.lexeme)) {
+		Scope scope = scopes.peek();
+		if (scope.locals.containsKey(name.symbol)) {
 			Lox.error(name, "Already a variable with this name in this scope.");
+			return scope.locals.get(name.symbol).slot;
 		}
-		scope.put(name.lexeme, false);
+		Local local = new Local(scope.frame.size++);
+		scope.locals.put(name.symbol, local);
+		return local.slot;
+	}
+
+	/**
+	 * Declares and defines a variable the interpreter binds implicitly, like
+	 * "this" and "super", in the innermost scope.
+	 */
+	private void declareSynthetic(String name) {
+		Scope scope = scopes.peek();
+		Local local = new Local(scope.frame.size++);
+		local.defined = true;
+		scope.locals.put(SymbolTable.intern(name), local);
 	}
 
 	/**
@@ -308,15 +565,36 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		if (scopes.isEmpty()) {
 			return;
 		}
-		scopes.peek().put(name.lexeme, true);
+		scopes.peek().locals.get(name.symbol).defined = true;
 	}
 
-	private void resolveLocal(Expr expr, Token name) {
+	/**
+	 * Resolves where the variable with the given name lives relative to the
+	 * innermost scope. The depth only counts the scopes owning an environment, as
+	 * those are the only ones the interpreter creates an environment for.
+	 */
+	private void resolveLocal(Expr.Resolvable expr, Token name) {
+		expr.depth = -1;
+		int depth = 0;
 		for (int i = scopes.size() - 1; i >= 0; i--) {
-			if (scopes.get(i).containsKey(name.lexeme)) {
-				interpreter.resolve(expr, scopes.size() - 1 - i);
+			Scope scope = scopes.get(i);
+			Local local = scope.locals.get(name.symbol);
+			if (local != null) {
+				expr.depth = depth;
+				expr.slot = local.slot;
+				if (expr instanceof Assign) {
+					if (local.assignments == null) {
+						local.assignments = new ArrayList<>();
+					}
+					local.assignments.add((Assign) expr);
+				} else {
+					local.read = true;
+				}
 				return;
 			}
+			if (scope.frame == scope) {
+				depth++;
+			}
 		}
 	}
 
@@ -329,14 +607,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	 */
 	private void resolveFunction(Stmt.Function function, FunctionType type) {
 		FunctionType enclosingFunction = currentFunction;
+		Stmt.Function enclosingDeclaration = currentDeclaration;
 		currentFunction = type;
+		currentDeclaration = function;
 		beginScope();
 		for (Token param : function.params) {
 			declare(param);
 			define(param);
 		}
+		if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+			// Methods get their receiver right after the parameters
+			declareSynthetic("this");
+		}
 		resolve(function.body);
-		endScope();
+		function.localCount = endScope();
 		currentFunction = enclosingFunction;
+		currentDeclaration = enclosingDeclaration;
 	}
 }
@@ -0,0 +1,84 @@
+package tech.riadh.lox;
+
+/**
+ * A Lox string built by concatenation, which defers copying its characters
+ * until the string is observed.
+ *
+ * A rope is a prefix of a buffer that may be shared with other ropes. Appending
+ * to the rope that ends where its buffer ends extends the buffer in place and
+ * returns a longer rope over it, so building a string piece by piece in a loop
+ * takes amortized linear time instead of copying the whole string on each
+ * concatenation. Since every rope only sees its own prefix, the ropes sharing a
+ * buffer still behave as immutable strings.
+ *
+ * Short concatenations produce plain strings, so ropes only show up once a
+ * string grows past {@link #MIN_LENGTH} characters. A rope flattens into a
+ * {@link String} the first time it's printed or compared.
+ */
+final class Rope {
+	/**
+	 * Length from which a concatenation produces a rope rather than a string.
+	 */
+	static final int MIN_LENGTH = 256;
+
+	private final StringBuilder buffer;
+	private final int length;
+	private String flattened;
+
+	private Rope(StringBuilder buffer, int length) {
+		this.buffer = buffer;
+		this.length = length;
+	}
+
+	/**
+	 * Checks whether a Lox value is a string, flat or not.
+	 */
+	static boolean isString(Object value) {
+		return value instanceof String || value instanceof Rope;
+	}
+
+	/**
+	 * Concatenates two Lox strings.
+	 *
+	 * @return A {@link String} or a {@link Rope}
+	 */
+	static Object concat(Object left, Object right) {
+		int length = length(left) + length(right);
+		if (length < MIN_LENGTH) {
+			return left.toString() + right.toString();
+		}
+
+		if (left instanceof Rope rope && rope.length == rope.buffer.length()) {
+			// Nothing was appended to the buffer past this rope yet
+			append(rope.buffer, right);
+			return new Rope(rope.buffer, length);
+		}
+		StringBuilder buffer = new StringBuilder(length * 2);
+		append(buffer, left);
+		append(buffer, right);
+		return new Rope(buffer, length);
+	}
+
+	private static int length(Object value) {
+		return value instanceof Rope ? ((Rope) value).length : ((String) value).length();
+	}
+
+	/**
+	 * Appends the characters of a Lox string to a buffer without flattening it.
+	 */
+	private static void append(StringBuilder buffer, Object value) {
+		if (value instanceof Rope rope && rope.flattened == null && rope.buffer != buffer) {
+			buffer.append(rope.buffer, 0, rope.length);
+		} else {
+			buffer.append(value.toString());
+		}
+	}
+
+	@Override
+	public String toString() {
+		if (flattened == null) {
+			flattened = buffer.substring(0, length);
+		}
+		return flattened;
+	}
+}
@@ -0,0 +1,166 @@
+package tech.riadh.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Profiles a program by sampling its call stack, when it runs with
+ * {@code --sample}.
+ *
+ * The interpreter publishes the Lox call stack as it runs: the function of each
+ * frame, and the line of the statement each frame is executing. Publishing is
+ * a few plain stores per call and one per statement; only the depth of the
+ * stack is stored with release semantics, so that a sampler reading it sees the
+ * frames below it. A background thread reads the stack at a fixed rate and
+ * counts how many samples saw each stack. Reads race with the interpreter, which
+ * may make a rare sample inaccurate but never slows the program down.
+ *
+ * The samples are written in the folded format flame graph tools read: the
+ * functions of the stack from the outermost, then the line the innermost one
+ * was executing, separated by semicolons, and finally the number of samples.
+ * Functions are named after their declaration and the line it's on, like in
+ * the {@link Profiler}.
+ */
+class Sampler {
+	private static final VarHandle DEPTH;
+
+	static {
+		try {
+			DEPTH = MethodHandles.lookup().findVarHandle(Sampler.class, "depth", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	// The published stack, frame 0 being the code outside functions
+	private Stmt.Function[] functions = new Stmt.Function[64];
+	private int[] lines = new int[64];
+	@SuppressWarnings("unused") // Accessed through DEPTH
+	private int depth = 0;
+
+	private final long period;
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	/**
+	 * The number of samples of each stack, only accessed by the sampling thread
+	 * until it stops.
+	 */
+	private final Map<String, Long> samples = new HashMap<>();
+	private final Map<Stmt.Function, String> names = new IdentityHashMap<>();
+	private long count = 0;
+
+	/**
+	 * Constructs a sampler and starts sampling.
+	 *
+	 * @param rate The number of samples to take per second
+	 */
+	Sampler(int rate) {
+		period = 1_000_000_000L / rate;
+		thread = new Thread(this::run, "lox-sampler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// Called by the interpreter
+
+	void enter(Stmt.Function function) {
+		int top = (int) DEPTH.get(this) + 1;
+		if (top == functions.length) {
+			functions = Arrays.copyOf(functions, top * 2);
+			lines = Arrays.copyOf(lines, top * 2);
+		}
+		functions[top] = function;
+		lines[top] = 0;
+		DEPTH.setRelease(this, top);
+	}
+
+	/**
+	 * Replaces the function of the innermost frame, for tail calls.
+	 */
+	void replace(Stmt.Function function) {
+		int top = (int) DEPTH.get(this);
+		functions[top] = function;
+		lines[top] = 0;
+	}
+
+	void exit() {
+		DEPTH.setRelease(this, (int) DEPTH.get(this) - 1);
+	}
+
+	void line(int line) {
+		lines[(int) DEPTH.get(this)] = line;
+	}
+
+	// Sampling thread
+
+	private void run() {
+		long next = System.nanoTime();
+		while (running) {
+			next += period;
+			LockSupport.parkNanos(next - System.nanoTime());
+			sample();
+		}
+	}
+
+	private void sample() {
+		int top = (int) DEPTH.getAcquire(this);
+		Stmt.Function[] functions = this.functions;
+		int[] lines = this.lines;
+		top = Math.min(top, Math.min(functions.length, lines.length) - 1);
+
+		StringBuilder stack = new StringBuilder("<script>");
+		for (int i = 1; i <= top; i++) {
+			Stmt.Function function = functions[i];
+			if (function != null) {
+				stack.append(';').append(name(function));
+			}
+		}
+		int line = lines[top];
+		if (line > 0) {
+			stack.append(";line ").append(line);
+		}
+		samples.merge(stack.toString(), 1L, Long::sum);
+		count++;
+	}
+
+	private String name(Stmt.Function function) {
+		String name = names.get(function);
+		if (name == null) {
+			name = function.name.lexeme() + ":" + function.name.line;
+			names.put(function, name);
+		}
+		return name;
+	}
+
+	/**
+	 * Stops sampling and writes the samples.
+	 *
+	 * @param file The file to write the folded stacks to
+	 * @return The number of samples taken
+	 */
+	long finish(Path file) throws IOException {
+		running = false;
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+			for (Map.Entry<String, Long> stack : samples.entrySet()) {
+				out.println(stack.getKey() + " " + stack.getValue());
+			}
+		}
+		return count;
+	}
+}
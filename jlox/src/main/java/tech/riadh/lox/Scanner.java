@@ -8,8 +8,12 @@ import java.util.Map;
 class Scanner {
     private static final Map<String, TokenType> KEYWORDS;
 
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final CharSequence source;
+
+    /**
+     * The token the last call to {@link #scanToken()} produced, if any.
+     */
+    private Token scanned;
     private int start = 0;
     private int current = 0;
     private int line = 1;
@@ -23,6 +27,7 @@ class Scanner {
         KEYWORDS.put("for", TokenType.FOR);
         KEYWORDS.put("fun", TokenType.FUN);
         KEYWORDS.put("if", TokenType.IF);
+        KEYWORDS.put("import", TokenType.IMPORT);
         KEYWORDS.put("nil", TokenType.NIL);
         KEYWORDS.put("or", TokenType.OR);
         KEYWORDS.put("print", TokenType.PRINT);
@@ -34,17 +39,41 @@ class Scanner {
         KEYWORDS.put("while", TokenType.WHILE);
     }
 
-    Scanner(String source) {
+    Scanner(CharSequence source) {
         this.source = source;
     }
 
-    List<Token> scanTokens() {
-        while (!isAtEnd()) {
+    /**
+     * Scans and returns the next token of the source, skipping whitespaces and
+     * comments. Once the source is exhausted, every call returns an EOF token.
+     *
+     * @return The next token
+     */
+    Token nextToken() {
+        scanned = null;
+        while (scanned == null && !isAtEnd()) {
             start = current;
             scanToken();
         }
 
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+        if (scanned == null) {
+            return new Token(TokenType.EOF, "", null, line);
+        }
+        return scanned;
+    }
+
+    /**
+     * Scans all the tokens of the source at once.
+     *
+     * @return The tokens, ending with an EOF token
+     */
+    List<Token> scanTokens() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while (token.type != TokenType.EOF);
         return tokens;
     }
 
@@ -105,9 +134,8 @@ class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        Token t = new Token(type, text, literal, line);
-        tokens.add(t);
+        // The lexeme stays in the source until someone asks for it
+        scanned = new Token(type, source, start, current - start, literal, line);
     }
 
     /**
@@ -130,7 +158,7 @@ class Scanner {
         advance();
 
         // Trim the enclosing quotes
-        String value = source.substring(start + 1, current - 1);
+        String value = source.subSequence(start + 1, current - 1).toString();
         addToken(TokenType.STRING, value);
 
         // NOTE: unescaping escape sequences would be here if supported.
@@ -149,9 +177,20 @@ class Scanner {
             while (isDigit(peek())) {
                 advance();
             }
+            addToken(TokenType.NUMBER, Double.parseDouble(source.subSequence(start, current).toString()));
+            return;
         }
 
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        if (current - start <= 15) {
+            // Small integers are exact as doubles, no need for a string to parse
+            long value = 0;
+            for (int i = start; i < current; i++) {
+                value = value * 10 + (source.charAt(i) - '0');
+            }
+            addToken(TokenType.NUMBER, (double) value);
+        } else {
+            addToken(TokenType.NUMBER, Double.parseDouble(source.subSequence(start, current).toString()));
+        }
     }
 
     /**
@@ -162,12 +201,15 @@ class Scanner {
             advance();
         }
 
-        String token = source.substring(start, current);
-        TokenType t = KEYWORDS.get(token);
+        // Interning the identifier gives the shared string of its name, without
+        // copying it out of the source when it was seen before
+        int symbol = SymbolTable.intern(source, start, current);
+        String text = SymbolTable.name(symbol);
+        TokenType t = KEYWORDS.get(text);
         if (t == null) {
             t = TokenType.IDENTIFIER;
         }
-        addToken(t);
+        scanned = new Token(t, text, null, line, symbol);
     }
 
     /**
@@ -0,0 +1,72 @@
+package tech.riadh.lox;
+
+/**
+ * A shape (also known as a hidden class) maps the names of the fields of an
+ * instance to the slots where the instance stores their values.
+ *
+ * Instances start with the empty shape of their class and move to another one
+ * each time a field is added to them. Shapes remember these transitions, so
+ * instances which got the same fields in the same order share the same shape.
+ * Since every class has its own tree of shapes, a shape also tells the class of
+ * the instance. This lets a property access site cache the slot of a field, or
+ * the method it finds, for the shape it last saw.
+ */
+class Shape {
+	private final SymbolMap<Integer> slots;
+	private final SymbolMap<Shape> transitions = new SymbolMap<>();
+
+	private Shape(SymbolMap<Integer> slots) {
+		this.slots = slots;
+	}
+
+	/**
+	 * Returns a new shape without fields, the root of a tree of transitions.
+	 */
+	static Shape empty() {
+		return new Shape(new SymbolMap<>());
+	}
+
+	/**
+	 * Returns the number of fields of the shape.
+	 */
+	int size() {
+		return slots.size();
+	}
+
+	/**
+	 * Returns the symbols of the names of the fields, ordered by slot.
+	 */
+	int[] fields() {
+		int[] fields = new int[slots.size()];
+		for (int name : slots.symbols()) {
+			fields[slots.get(name)] = name;
+		}
+		return fields;
+	}
+
+	/**
+	 * Returns the slot of a field, or -1 if the shape has no such field.
+	 */
+	int slotOf(int name) {
+		Integer slot = slots.get(name);
+		return slot != null ? slot : -1;
+	}
+
+	/**
+	 * Returns the shape with a new field added after the fields of this one.
+	 *
+	 * @param name The symbol of the name of the new field
+	 * @return The shared shape for the fields of this shape followed by the new
+	 *         one
+	 */
+	Shape withField(int name) {
+		Shape shape = transitions.get(name);
+		if (shape == null) {
+			SymbolMap<Integer> newSlots = new SymbolMap<>(slots);
+			newSlots.put(name, slots.size());
+			shape = new Shape(newSlots);
+			transitions.put(name, shape);
+		}
+		return shape;
+	}
+}
@@ -0,0 +1,397 @@
+package tech.riadh.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves the global state of an interpreter to a file and restores it into
+ * another interpreter, so that a prelude shared by many programs runs only
+ * once.
+ *
+ * A snapshot holds the graph of values reachable from the globals: classes,
+ * functions with the environments they close over, instances and plain values.
+ * Functions keep their resolved declaration, written in the format of the
+ * {@link ProgramCache}, so restoring a snapshot neither runs nor compiles any
+ * code.
+ *
+ * The graph is written in two passes. Objects come first, each after the
+ * objects its constructor needs (an environment after its enclosing one, a
+ * function after its closure, a class after its superclass and methods, an
+ * instance after its class), which the reader creates in the same order. Then
+ * come the variables of the environments and the fields of the instances,
+ * which can refer to any object and so may form cycles.
+ */
+class Snapshot {
+	private static final int MAGIC = 0x4c4f5853; // "LOXS"
+	private static final int FORMAT = 1;
+
+	// Tags of the objects
+	private static final int ENVIRONMENT = 0;
+	private static final int FUNCTION = 1;
+	private static final int CLASS = 2;
+	private static final int INSTANCE = 3;
+	private static final int NATIVE = 4;
+
+	// Tags of the values
+	private static final int NIL = 0;
+	private static final int FALSE = 1;
+	private static final int TRUE = 2;
+	private static final int NUMBER = 3;
+	private static final int STRING = 4;
+	private static final int OBJECT = 5;
+
+	/**
+	 * The id of the global environment, which every snapshot refers to without
+	 * writing it as an object.
+	 */
+	private static final int GLOBALS = 0;
+
+	private Snapshot() {
+	}
+
+	/**
+	 * Writes the globals of an interpreter to a snapshot file.
+	 *
+	 * @param interpreter The interpreter that ran the prelude
+	 * @param file        The file to write
+	 * @throws IOException If the file can't be written, or a global holds a value
+	 *                     that can't be saved
+	 */
+	static void write(Interpreter interpreter, Path file) throws IOException {
+		Writer writer = new Writer(interpreter.globals);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			writer.write(out);
+		}
+	}
+
+	/**
+	 * Defines the globals saved in a snapshot file in an interpreter.
+	 *
+	 * @param interpreter The interpreter about to run a program
+	 * @param file        The file to read
+	 * @throws IOException If the file can't be read or isn't a snapshot of this
+	 *                     version
+	 */
+	static void restore(Interpreter interpreter, Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			new Reader(interpreter.globals, in).read();
+		}
+	}
+
+	/**
+	 * Numbers the objects reachable from the globals, then writes them.
+	 */
+	private static class Writer {
+		private final Environment globals;
+		private final Map<Object, Integer> ids = new IdentityHashMap<>();
+		private final List<Object> objects = new ArrayList<>();
+		private final Map<Stmt.Function, Integer> declarations = new IdentityHashMap<>();
+
+		/**
+		 * The names the natives are defined under, to find them again in the
+		 * interpreter restoring the snapshot.
+		 */
+		private final Map<Object, String> natives = new IdentityHashMap<>();
+
+		Writer(Environment globals) {
+			this.globals = globals;
+			ids.put(globals, GLOBALS);
+			objects.add(globals);
+
+			Environment fresh = new Environment();
+			Interpreter.defineNatives(fresh);
+			for (int name : fresh.globals().symbols()) {
+				Object value = globals.globals().get(name);
+				if (value != null) {
+					natives.put(value, SymbolTable.name(name));
+				}
+			}
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			SymbolMap<Object> variables = globals.globals();
+			for (Object value : variables.values()) {
+				number(value);
+			}
+			// Number what the variables and fields refer to, which adds more objects
+			for (int i = 0; i < objects.size(); i++) {
+				Object object = objects.get(i);
+				if (object instanceof Environment && object != globals) {
+					for (Object value : ((Environment) object).values()) {
+						number(value);
+					}
+				} else if (object instanceof LoxInstance) {
+					LoxInstance instance = (LoxInstance) object;
+					for (int slot = 0; slot < instance.shape.size(); slot++) {
+						number(instance.fields[slot]);
+					}
+				}
+			}
+
+			if (ProgramCache.BUILD == null) {
+				throw new IOException("Can't identify this build of jlox.");
+			}
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			out.write(ProgramCache.BUILD);
+
+			List<Stmt.Function> functions = new ArrayList<>(declarations.keySet());
+			functions.sort((a, b) -> declarations.get(a) - declarations.get(b));
+			out.writeInt(functions.size());
+			ProgramCache.Writer tree = new ProgramCache.Writer(out);
+			for (Stmt.Function function : functions) {
+				tree.declaration(function);
+			}
+
+			out.writeInt(objects.size());
+			for (Object object : objects.subList(1, objects.size())) {
+				object(out, object);
+			}
+			for (Object object : objects) {
+				if (object instanceof Environment && object != globals) {
+					for (Object value : ((Environment) object).values()) {
+						value(out, value);
+					}
+				} else if (object instanceof LoxInstance) {
+					LoxInstance instance = (LoxInstance) object;
+					int[] fields = instance.shape.fields();
+					out.writeInt(fields.length);
+					for (int slot = 0; slot < fields.length; slot++) {
+						string(out, SymbolTable.name(fields[slot]));
+						value(out, instance.fields[slot]);
+					}
+				}
+			}
+
+			int[] names = variables.symbols();
+			out.writeInt(names.length);
+			for (int name : names) {
+				string(out, SymbolTable.name(name));
+				value(out, variables.get(name));
+			}
+		}
+
+		/**
+		 * Gives an id to an object and the objects it's constructed from, unless
+		 * the value is a plain one or already has an id.
+		 */
+		private void number(Object value) throws IOException {
+			if (value == null || value instanceof Boolean || value instanceof Double || Rope.isString(value)
+					|| ids.containsKey(value)) {
+				return;
+			}
+
+			if (value instanceof Environment) {
+				number(((Environment) value).enclosing);
+			} else if (value instanceof LoxFunction) {
+				LoxFunction function = (LoxFunction) value;
+				number(function.closure);
+				number(function.receiver);
+				declarations.putIfAbsent(function.declaration, declarations.size());
+			} else if (value instanceof LoxClass) {
+				LoxClass loxClass = (LoxClass) value;
+				number(loxClass.superclass);
+				for (LoxFunction method : loxClass.methods()) {
+					number(method);
+				}
+			} else if (value instanceof LoxInstance) {
+				number(((LoxInstance) value).loxClass);
+			} else if (!natives.containsKey(value)) {
+				throw new IOException("Can't save " + value + " in a snapshot.");
+			}
+
+			ids.put(value, objects.size());
+			objects.add(value);
+		}
+
+		private void object(DataOutputStream out, Object object) throws IOException {
+			if (object instanceof Environment) {
+				Environment environment = (Environment) object;
+				out.writeByte(ENVIRONMENT);
+				out.writeInt(ids.get(environment.enclosing));
+				out.writeInt(environment.values().length);
+			} else if (object instanceof LoxFunction) {
+				LoxFunction function = (LoxFunction) object;
+				out.writeByte(FUNCTION);
+				out.writeInt(declarations.get(function.declaration));
+				out.writeInt(ids.get(function.closure));
+				out.writeBoolean(function.isInitializer);
+				out.writeInt(function.receiver != null ? ids.get(function.receiver) : -1);
+			} else if (object instanceof LoxClass) {
+				LoxClass loxClass = (LoxClass) object;
+				out.writeByte(CLASS);
+				string(out, loxClass.name);
+				out.writeInt(loxClass.superclass != null ? ids.get(loxClass.superclass) : -1);
+				List<LoxFunction> methods = loxClass.methods();
+				out.writeInt(methods.size());
+				for (LoxFunction method : methods) {
+					out.writeInt(ids.get(method));
+				}
+			} else if (object instanceof LoxInstance) {
+				out.writeByte(INSTANCE);
+				out.writeInt(ids.get(((LoxInstance) object).loxClass));
+			} else {
+				out.writeByte(NATIVE);
+				string(out, natives.get(object));
+			}
+		}
+
+		private void value(DataOutputStream out, Object value) throws IOException {
+			if (value == null) {
+				out.writeByte(NIL);
+			} else if (value instanceof Boolean) {
+				out.writeByte((boolean) value ? TRUE : FALSE);
+			} else if (value instanceof Double) {
+				out.writeByte(NUMBER);
+				out.writeDouble((double) value);
+			} else if (Rope.isString(value)) {
+				out.writeByte(STRING);
+				string(out, value.toString());
+			} else {
+				out.writeByte(OBJECT);
+				out.writeInt(ids.get(value));
+			}
+		}
+
+		private static void string(DataOutputStream out, String string) throws IOException {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Recreates the objects of a snapshot and defines its globals.
+	 */
+	private static class Reader {
+		private final Environment globals;
+		private final DataInputStream in;
+		private final List<Object> objects = new ArrayList<>();
+		private final List<Stmt.Function> declarations = new ArrayList<>();
+
+		Reader(Environment globals, DataInputStream in) {
+			this.globals = globals;
+			this.in = in;
+		}
+
+		void read() throws IOException {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT || ProgramCache.BUILD == null) {
+				throw new IOException("Not a snapshot of this version of jlox.");
+			}
+			byte[] build = new byte[ProgramCache.BUILD.length];
+			in.readFully(build);
+			if (!Arrays.equals(ProgramCache.BUILD, build)) {
+				throw new IOException("Not a snapshot of this version of jlox.");
+			}
+
+			int count = in.readInt();
+			ProgramCache.Reader tree = new ProgramCache.Reader(in);
+			for (int i = 0; i < count; i++) {
+				declarations.add(tree.declaration());
+			}
+
+			count = in.readInt();
+			objects.add(globals);
+			for (int i = 1; i < count; i++) {
+				objects.add(object());
+			}
+			for (Object object : objects) {
+				if (object instanceof Environment && object != globals) {
+					Environment environment = (Environment) object;
+					for (int slot = 0; slot < environment.values().length; slot++) {
+						environment.define(slot, value());
+					}
+				} else if (object instanceof LoxInstance) {
+					LoxInstance instance = (LoxInstance) object;
+					int fields = in.readInt();
+					for (int slot = 0; slot < fields; slot++) {
+						instance.reshape(instance.shape.withField(SymbolTable.intern(string())));
+						instance.fields[slot] = value();
+					}
+				}
+			}
+
+			count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				globals.define(string(), value());
+			}
+		}
+
+		private Object object() throws IOException {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+				case ENVIRONMENT: {
+					Environment enclosing = (Environment) objects.get(in.readInt());
+					return new Environment(enclosing, in.readInt());
+				}
+				case FUNCTION: {
+					Stmt.Function declaration = declarations.get(in.readInt());
+					Environment closure = (Environment) objects.get(in.readInt());
+					LoxFunction function = new LoxFunction(declaration, closure, in.readBoolean());
+					int receiver = in.readInt();
+					return receiver != -1 ? function.bind((LoxInstance) objects.get(receiver)) : function;
+				}
+				case CLASS: {
+					String name = string();
+					int superclass = in.readInt();
+					int count = in.readInt();
+					SymbolMap<LoxFunction> methods = new SymbolMap<>();
+					for (int i = 0; i < count; i++) {
+						LoxFunction method = (LoxFunction) objects.get(in.readInt());
+						methods.put(method.declaration.name.symbol, method);
+					}
+					return new LoxClass(name, superclass != -1 ? (LoxClass) objects.get(superclass) : null, methods);
+				}
+				case INSTANCE:
+					return new LoxInstance((LoxClass) objects.get(in.readInt()));
+				case NATIVE: {
+					String name = string();
+					Object function = globals.globals().get(SymbolTable.intern(name));
+					if (function == null) {
+						throw new IOException("Unknown native function '" + name + "'.");
+					}
+					return function;
+				}
+				default:
+					throw new IOException("Unknown object tag " + tag + ".");
+			}
+		}
+
+		private Object value() throws IOException {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+				case NIL:
+					return null;
+				case FALSE:
+					return false;
+				case TRUE:
+					return true;
+				case NUMBER:
+					return in.readDouble();
+				case STRING:
+					return string();
+				case OBJECT:
+					return objects.get(in.readInt());
+				default:
+					throw new IOException("Unknown value tag " + tag + ".");
+			}
+		}
+
+		private String string() throws IOException {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package tech.riadh.lox;
+
+/**
+ * The specialized versions a {@link Expr.Binary} node can rewrite itself into,
+ * based on the operand types the interpreter observed the first time it ran
+ * it. A specialized node only checks that its operands still have the observed
+ * types, and turns into {@link #GENERIC} for good once that guard fails.
+ */
+enum Specialization {
+	UNINITIALIZED,
+	ADD_NUMBERS,
+	SUBTRACT_NUMBERS,
+	MULTIPLY_NUMBERS,
+	DIVIDE_NUMBERS,
+	GREATER_NUMBERS,
+	GREATER_EQUAL_NUMBERS,
+	LESS_NUMBERS,
+	LESS_EQUAL_NUMBERS,
+	EQUAL_NUMBERS,
+	NOT_EQUAL_NUMBERS,
+	CONCAT_STRINGS,
+	GENERIC;
+
+	/**
+	 * Whether the node computes a number out of two numbers, in which case the
+	 * interpreter can evaluate it without boxing.
+	 */
+	boolean isArithmetic() {
+		return this == ADD_NUMBERS || this == SUBTRACT_NUMBERS || this == MULTIPLY_NUMBERS || this == DIVIDE_NUMBERS;
+	}
+
+	/**
+	 * Whether the node compares two numbers.
+	 */
+	boolean isComparison() {
+		return this == GREATER_NUMBERS || this == GREATER_EQUAL_NUMBERS || this == LESS_NUMBERS
+				|| this == LESS_EQUAL_NUMBERS || this == EQUAL_NUMBERS || this == NOT_EQUAL_NUMBERS;
+	}
+}
@@ -17,13 +17,22 @@ abstract class Stmt {
 
 		R visitWhileStatement(While stmt);
 
+		R visitForStatement(For stmt);
+
 		R visitFunctionStatement(Function stmt);
 
 		R visitReturnStatement(Return stmt);
 
 		R visitClassStatement(Class stmt);
+
+		R visitImportStatement(Import stmt);
 	}
 
+	/**
+	 * The line the statement starts on, set by the {@link Parser}.
+	 */
+	int line;
+
 	abstract <R> R accept(Visitor<R> visitor);
 
 	static class Expression extends Stmt {
@@ -57,6 +66,17 @@ abstract class Stmt {
 		final Token name;
 		final Expr initializer;
 
+		/**
+		 * Slot of the variable in its scope, or -1 if the variable is global.
+		 */
+		int slot = -1;
+
+		/**
+		 * Whether the variable is a local that is never read, which makes the
+		 * {@link Optimizer} drop its declaration and the assignments to it.
+		 */
+		boolean neverRead;
+
 		Var(Token name, Expr initializer) {
 			this.name = name;
 			this.initializer = initializer;
@@ -71,6 +91,12 @@ abstract class Stmt {
 	static class Block extends Stmt {
 		final List<Stmt> statements;
 
+		/**
+		 * Number of slots of the block's environment, or 0 if the block runs in
+		 * the enclosing environment.
+		 */
+		int localCount;
+
 		Block(List<Stmt> statements) {
 			this.statements = statements;
 		}
@@ -102,6 +128,12 @@ abstract class Stmt {
 		final Expr condition;
 		final Stmt body;
 
+		/**
+		 * The function whose body contains the loop, or null at top level. Used by
+		 * the {@link Jit} to count loop iterations towards the function's hotness.
+		 */
+		Function function;
+
 		While(Expr condition, Stmt body) {
 			this.condition = condition;
 			this.body = body;
@@ -113,11 +145,84 @@ abstract class Stmt {
 		}
 	}
 
+	static class For extends Stmt {
+		final Stmt initializer;
+		final Expr condition;
+		final Expr increment;
+		final Stmt body;
+
+		/**
+		 * Number of slots of the environment holding the loop variable, or 0 if the
+		 * loop runs in the enclosing environment.
+		 */
+		int localCount;
+
+		/**
+		 * The function whose body contains the loop, or null at top level. Used by
+		 * the {@link Jit} to count loop iterations towards the function's hotness.
+		 */
+		Function function;
+
+		/**
+		 * The local loop variable when the loop counts it up or down by a constant
+		 * step, as in {@code for (var i = 0; i < n; i = i + 1)}, or null. Set by the
+		 * {@link Resolver}.
+		 */
+		Expr.Variable counter;
+
+		/**
+		 * The amount added to the counter on each iteration of a counted loop.
+		 */
+		double step;
+
+		For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+			this.initializer = initializer;
+			this.condition = condition;
+			this.increment = increment;
+			this.body = body;
+		}
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitForStatement(this);
+		}
+	}
+
 	static class Function extends Stmt {
 		final Token name;
 		final List<Token> params;
 		final List<Stmt> body;
 
+		/**
+		 * Slot of the function in its scope, or -1 if the function is global.
+		 */
+		int slot = -1;
+
+		/**
+		 * Number of local variables of the function body including parameters.
+		 */
+		int localCount;
+
+		/**
+		 * Bytecode of the function body, only set when running on the {@link VM}.
+		 */
+		Chunk chunk;
+
+		/**
+		 * Calls plus loop iterations counted by the {@link Jit}.
+		 */
+		int hotness;
+
+		/**
+		 * The body compiled to JVM bytecode once the function got hot.
+		 */
+		Jit.CompiledBody compiled;
+
+		/**
+		 * Whether the {@link Jit} failed to compile the body.
+		 */
+		boolean uncompilable;
+
 		Function(Token name, List<Token> params, List<Stmt> body) {
 			this.name = name;
 			this.params = params;
@@ -150,6 +255,11 @@ abstract class Stmt {
 		final Expr.Variable superclass;
 		final List<Stmt.Function> methods;
 
+		/**
+		 * Slot of the class in its scope, or -1 if the class is global.
+		 */
+		int slot = -1;
+
 		Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
 			this.name = name;
 			this.superclass = superclass;
@@ -161,4 +271,19 @@ abstract class Stmt {
 			return visitor.visitClassStatement(this);
 		}
 	}
+
+	static class Import extends Stmt {
+		final Token keyword;
+		final Token path;
+
+		Import(Token keyword, Token path) {
+			this.keyword = keyword;
+			this.path = path;
+		}
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitImportStatement(this);
+		}
+	}
 }
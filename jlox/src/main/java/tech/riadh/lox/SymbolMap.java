@@ -0,0 +1,133 @@
+package tech.riadh.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A map keyed by {@link SymbolTable symbols}, the runtime counterpart of
+ * {@code HashMap<String, V>} for names.
+ *
+ * Entries live in an open addressing table probed linearly. Since symbols are
+ * dense ids, a symbol is its own hash and spreads evenly over the table. Lox
+ * never removes names, so the map doesn't support removal either.
+ *
+ * @param <V> The type of the values
+ */
+class SymbolMap<V> {
+	private static final double MAX_LOAD = 0.75;
+
+	/**
+	 * The symbol of each entry plus one, 0 marking an empty entry.
+	 */
+	private int[] keys;
+	private Object[] values;
+	private int count = 0;
+
+	SymbolMap() {
+		keys = new int[8];
+		values = new Object[8];
+	}
+
+	/**
+	 * Constructs a map with the same entries as another one.
+	 */
+	SymbolMap(SymbolMap<V> other) {
+		keys = other.keys.clone();
+		values = other.values.clone();
+		count = other.count;
+	}
+
+	int size() {
+		return count;
+	}
+
+	boolean containsKey(int symbol) {
+		return keys[find(keys, symbol)] != 0;
+	}
+
+	/**
+	 * Returns the value of a symbol, or null if the map has no such symbol.
+	 */
+	@SuppressWarnings("unchecked")
+	V get(int symbol) {
+		return (V) values[find(keys, symbol)];
+	}
+
+	void put(int symbol, V value) {
+		int index = find(keys, symbol);
+		if (keys[index] == 0) {
+			if (count + 1 > keys.length * MAX_LOAD) {
+				grow();
+				index = find(keys, symbol);
+			}
+			keys[index] = symbol + 1;
+			count++;
+		}
+		values[index] = value;
+	}
+
+	void putAll(SymbolMap<V> other) {
+		for (int i = 0; i < other.keys.length; i++) {
+			if (other.keys[i] != 0) {
+				@SuppressWarnings("unchecked")
+				V value = (V) other.values[i];
+				put(other.keys[i] - 1, value);
+			}
+		}
+	}
+
+	/**
+	 * Returns the symbols of the map, in no particular order.
+	 */
+	int[] symbols() {
+		int[] symbols = new int[count];
+		int next = 0;
+		for (int key : keys) {
+			if (key != 0) {
+				symbols[next++] = key - 1;
+			}
+		}
+		return symbols;
+	}
+
+	/**
+	 * Returns the values of the map, in the order of {@link #symbols()}.
+	 */
+	@SuppressWarnings("unchecked")
+	List<V> values() {
+		List<V> list = new ArrayList<>(count);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != 0) {
+				list.add((V) values[i]);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the index of the entry of a symbol, or of the empty entry where it
+	 * would go.
+	 */
+	private static int find(int[] keys, int symbol) {
+		int mask = keys.length - 1;
+		int index = symbol & mask;
+		while (keys[index] != 0 && keys[index] != symbol + 1) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new Object[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int index = find(keys, oldKeys[i] - 1);
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+}
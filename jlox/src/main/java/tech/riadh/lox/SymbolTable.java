@@ -0,0 +1,110 @@
+package tech.riadh.lox;
+
+import java.util.Arrays;
+
+/**
+ * Interns identifiers to symbols, dense integer ids shared by every occurrence
+ * of the same name. The scanner interns each identifier it reads, so that the
+ * runtime can look names up in {@link SymbolMap}s by id without hashing or
+ * comparing strings.
+ *
+ * The table is an open addressing hash table of symbols, probed linearly from
+ * the hash of the identifier's characters so that interning a slice of the
+ * source doesn't need to copy it into a string first.
+ */
+final class SymbolTable {
+	private static final double MAX_LOAD = 0.75;
+
+	private static String[] names = new String[64];
+	private static int[] hashes = new int[64];
+	private static int count = 0;
+
+	/**
+	 * The symbol of each entry plus one, 0 marking an empty entry.
+	 */
+	private static int[] entries = new int[128];
+
+	/**
+	 * The symbol of the name of initializers.
+	 */
+	static final int INIT = intern("init");
+
+	private SymbolTable() {
+	}
+
+	/**
+	 * Returns the symbol of a name, interning it if it's new.
+	 */
+	static int intern(String name) {
+		return intern(name, 0, name.length());
+	}
+
+	/**
+	 * Returns the symbol of the name found between two indexes of a source,
+	 * interning it if it's new.
+	 *
+	 * @param source The source containing the name
+	 * @param start  The index of the first character of the name
+	 * @param end    The index following the last character of the name
+	 * @return The symbol of the name
+	 */
+	static synchronized int intern(CharSequence source, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + source.charAt(i);
+		}
+
+		int length = end - start;
+		int mask = entries.length - 1;
+		int index = hash & mask;
+		while (entries[index] != 0) {
+			int symbol = entries[index] - 1;
+			String name = names[symbol];
+			if (hashes[symbol] == hash && name.length() == length && matches(source, start, name)) {
+				return symbol;
+			}
+			index = (index + 1) & mask;
+		}
+
+		if (count == names.length) {
+			names = Arrays.copyOf(names, count * 2);
+			hashes = Arrays.copyOf(hashes, count * 2);
+		}
+		int symbol = count++;
+		names[symbol] = source.subSequence(start, end).toString();
+		hashes[symbol] = hash;
+		entries[index] = symbol + 1;
+		if (count > entries.length * MAX_LOAD) {
+			grow();
+		}
+		return symbol;
+	}
+
+	private static boolean matches(CharSequence source, int start, String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (source.charAt(start + i) != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the name of a symbol.
+	 */
+	static synchronized String name(int symbol) {
+		return names[symbol];
+	}
+
+	private static void grow() {
+		entries = new int[entries.length * 2];
+		int mask = entries.length - 1;
+		for (int symbol = 0; symbol < count; symbol++) {
+			int index = hashes[symbol] & mask;
+			while (entries[index] != 0) {
+				index = (index + 1) & mask;
+			}
+			entries[index] = symbol + 1;
+		}
+	}
+}
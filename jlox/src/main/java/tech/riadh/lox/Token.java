@@ -2,19 +2,68 @@ package tech.riadh.lox;
 
 class Token {
     final TokenType type;
-    final String lexeme;
     final Object literal;
     final int line;
 
+    /**
+     * The {@link SymbolTable symbol} of the lexeme for identifiers and keywords,
+     * otherwise -1.
+     */
+    final int symbol;
+
+    /**
+     * Where the lexeme lies in the source. Scanned tokens only copy their lexeme
+     * out of the source the first time it's asked for.
+     */
+    private final CharSequence source;
+    private final int start;
+    private final int length;
+    private String lexeme;
+
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, isWord(type) ? SymbolTable.intern(lexeme) : -1);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int symbol) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = symbol;
+        this.source = null;
+        this.start = 0;
+        this.length = lexeme.length();
+    }
+
+    /**
+     * Constructs a token whose lexeme is the given range of the source.
+     */
+    Token(TokenType type, CharSequence source, int start, int length, Object literal, int line) {
+        this.type = type;
+        this.source = source;
+        this.start = start;
+        this.length = length;
+        this.literal = literal;
+        this.line = line;
+        this.symbol = -1;
+    }
+
+    private static boolean isWord(TokenType type) {
+        return type == TokenType.IDENTIFIER || type == TokenType.THIS || type == TokenType.SUPER;
+    }
+
+    /**
+     * Returns the text of the token as it appears in the source.
+     */
+    String lexeme() {
+        if (lexeme == null) {
+            lexeme = source.subSequence(start, start + length).toString();
+        }
+        return lexeme;
     }
 
     @Override
     public String toString() {
-        return "Token [type=" + type + ", lexeme=\033[0;32m" + lexeme + "\033[0m, literal=" + literal + "]";
+        return "Token [type=" + type + ", lexeme=\033[0;32m" + lexeme() + "\033[0m, literal=" + literal + "]";
     }
 }
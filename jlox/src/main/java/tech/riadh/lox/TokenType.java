@@ -37,6 +37,7 @@ enum TokenType {
     FUN,
     FOR,
     IF,
+    IMPORT,
     NIL,
     OR,
     PRINT,
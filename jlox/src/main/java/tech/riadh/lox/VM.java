@@ -0,0 +1,617 @@
+package tech.riadh.lox;
+
+import java.util.Arrays;
+
+/**
+ * A stack based virtual machine running the bytecode produced by the
+ * {@link Compiler}, modeled after clox's VM. Values and runtime objects are the
+ * same as the ones of the tree-walking {@link Interpreter}, but Lox calls are
+ * run in a single dispatch loop using a stack of call frames instead of
+ * recursing through the Java stack.
+ *
+ * Local variables live in the value stack, in the window of their call frame.
+ * Closures reach the variables they capture through upvalues, which point to
+ * the variable's stack slot while it's in scope and hold its value once it's
+ * closed. Globals live in an array indexed by the symbol of their name. Both
+ * stacks grow as needed, up to {@link #FRAMES_MAX} nested calls.
+ */
+class VM {
+	/**
+	 * The value of the globals that aren't defined.
+	 */
+	private static final Object UNDEFINED = new Object();
+
+	private static final Upvalue[] NO_UPVALUES = {};
+
+	/**
+	 * How deep calls can nest, like clox's FRAMES_MAX, so that runaway recursion
+	 * is reported as a stack overflow instead of running out of memory.
+	 */
+	static final int FRAMES_MAX = 100_000;
+
+	/**
+	 * A variable captured by a closure.
+	 */
+	static class Upvalue {
+		/**
+		 * The stack slot of the variable while it's open, -1 once closed.
+		 */
+		int slot;
+
+		/**
+		 * The value of the variable once closed.
+		 */
+		Object value;
+
+		/**
+		 * The next open upvalue, down the stack.
+		 */
+		Upvalue next;
+
+		Upvalue(int slot) {
+			this.slot = slot;
+		}
+	}
+
+	/**
+	 * An ongoing function call.
+	 */
+	private static class CallFrame {
+		/**
+		 * The called function, null for the top-level script.
+		 */
+		LoxFunction function;
+		Chunk chunk;
+		Upvalue[] upvalues;
+		int ip;
+
+		/**
+		 * The stack slot of the callee, followed by the arguments and the locals.
+		 * The callee is replaced by the receiver for methods.
+		 */
+		int base;
+	}
+
+	private Object[] globals = new Object[256];
+	private Object[] stack = new Object[256];
+	private int stackTop = 0;
+	private CallFrame[] frames = new CallFrame[64];
+	private int frameCount = 0;
+
+	/**
+	 * The open upvalues, from the top of the stack down.
+	 */
+	private Upvalue openUpvalues = null;
+
+	VM() {
+		Arrays.fill(globals, UNDEFINED);
+		Environment natives = new Environment();
+		Interpreter.defineNatives(natives);
+		for (int symbol : natives.globals().symbols()) {
+			defineGlobal(symbol, natives.globals().get(symbol));
+		}
+	}
+
+	/**
+	 * Runs a compiled script, reporting the runtime error that stops it if any.
+	 *
+	 * @param script The chunk of the top-level script
+	 */
+	void interpret(Chunk script) {
+		try {
+			ensureStack(1 + script.count);
+			stackTop = 1;
+			pushFrame(null, script, NO_UPVALUES, 0);
+			run();
+		} catch (RuntimeError error) {
+			Lox.runtimeError(error);
+		} finally {
+			// Closures that escaped keep the values of the variables they captured
+			closeUpvalues(0);
+			Arrays.fill(stack, null);
+			stackTop = 0;
+			frameCount = 0;
+		}
+	}
+
+	/**
+	 * Runs the dispatch loop until the script returns. The stack and its top are
+	 * kept in locals, and only written back to their fields around the calls and
+	 * returns that need them. Frames reserve the stack slots their chunk may use
+	 * when they're pushed, so instructions don't check for room on the stack.
+	 */
+	private void run() {
+		CallFrame frame = frames[frameCount - 1];
+		byte[] code = frame.chunk.code;
+		Object[] constants = frame.chunk.constants;
+		Upvalue[] upvalues = frame.upvalues;
+		int base = frame.base;
+		int ip = frame.ip;
+		Object[] stack = this.stack;
+		int sp = stackTop;
+
+		for (;;) {
+			switch (code[ip++]) {
+				case OpCode.CONSTANT -> {
+					stack[sp++] = constants[readShort(code, ip)];
+					ip += 2;
+				}
+				case OpCode.NIL -> stack[sp++] = null;
+				case OpCode.TRUE -> stack[sp++] = true;
+				case OpCode.FALSE -> stack[sp++] = false;
+				case OpCode.POP -> sp--;
+
+				case OpCode.GET_LOCAL -> {
+					stack[sp++] = stack[base + readShort(code, ip)];
+					ip += 2;
+				}
+				case OpCode.SET_LOCAL -> {
+					stack[base + readShort(code, ip)] = stack[sp - 1];
+					ip += 2;
+				}
+				case OpCode.POP_LOCAL -> {
+					stack[base + readShort(code, ip)] = stack[--sp];
+					ip += 2;
+				}
+				case OpCode.GET_UPVALUE -> {
+					Upvalue upvalue = upvalues[code[ip++] & 0xff];
+					stack[sp++] = upvalue.slot != -1 ? stack[upvalue.slot] : upvalue.value;
+				}
+				case OpCode.SET_UPVALUE -> {
+					Upvalue upvalue = upvalues[code[ip++] & 0xff];
+					if (upvalue.slot != -1) {
+						stack[upvalue.slot] = stack[sp - 1];
+					} else {
+						upvalue.value = stack[sp - 1];
+					}
+				}
+				case OpCode.CLOSE_UPVALUE -> closeUpvalues(--sp);
+				case OpCode.GET_GLOBAL -> {
+					int symbol = readShort(code, ip);
+					ip += 2;
+					Object value = symbol < globals.length ? globals[symbol] : UNDEFINED;
+					if (value == UNDEFINED) {
+						throw undefined(frame, ip, symbol);
+					}
+					stack[sp++] = value;
+				}
+				case OpCode.SET_GLOBAL -> {
+					int symbol = readShort(code, ip);
+					ip += 2;
+					if (symbol >= globals.length || globals[symbol] == UNDEFINED) {
+						throw undefined(frame, ip, symbol);
+					}
+					globals[symbol] = stack[sp - 1];
+				}
+				case OpCode.DEFINE_GLOBAL -> {
+					defineGlobal(readShort(code, ip), stack[--sp]);
+					ip += 2;
+				}
+
+				case OpCode.GET_PROPERTY -> {
+					Token name = (Token) constants[readShort(code, ip)];
+					ip += 2;
+					if (!(stack[sp - 1] instanceof LoxInstance)) {
+						throw new RuntimeError(name, "Only instances have properties.");
+					}
+					stack[sp - 1] = ((LoxInstance) stack[sp - 1]).get(name);
+				}
+				case OpCode.SET_PROPERTY -> {
+					Token name = (Token) constants[readShort(code, ip)];
+					ip += 2;
+					Object value = stack[--sp];
+					Object object = stack[sp - 1];
+					if (!(object instanceof LoxInstance)) {
+						throw new RuntimeError(name, "Only instances have fields.");
+					}
+					((LoxInstance) object).set(name, value);
+					stack[sp - 1] = value;
+				}
+				case OpCode.GET_SUPER -> {
+					Token name = (Token) constants[readShort(code, ip)];
+					ip += 2;
+					LoxClass superclass = (LoxClass) stack[--sp];
+					LoxInstance object = (LoxInstance) stack[sp - 1];
+					LoxFunction method = superclass.findMethod(name.symbol);
+					if (method == null) {
+						throw new RuntimeError(name, "Undefined property '" + name.lexeme() + "'.");
+					}
+					stack[sp - 1] = method.bind(object);
+				}
+
+				case OpCode.EQUAL -> {
+					Object b = stack[--sp];
+					stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], b);
+				}
+				case OpCode.NOT_EQUAL -> {
+					Object b = stack[--sp];
+					stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], b);
+				}
+				case OpCode.GREATER -> {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(frame, ip, a, b);
+					stack[sp - 1] = (double) a > (double) b;
+				}
+				case OpCode.GREATER_EQUAL -> {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(frame, ip, a, b);
+					stack[sp - 1] = (double) a >= (double) b;
+				}
+				case OpCode.LESS -> {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(frame, ip, a, b);
+					stack[sp - 1] = (double) a < (double) b;
+				}
+				case OpCode.LESS_EQUAL -> {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(frame, ip, a, b);
+					stack[sp - 1] = (double) a <= (double) b;
+				}
+				case OpCode.ADD -> {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					if (a instanceof Double && b instanceof Double) {
+						stack[sp - 1] = (double) a + (double) b;
+					} else if (Rope.isString(a) && Rope.isString(b)) {
+						stack[sp - 1] = Rope.concat(a, b);
+					} else {
+						throw error(frame, ip, "Operands must be two numbers or two strings.");
+					}
+				}
+				case OpCode.SUBTRACT -> {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(frame, ip, a, b);
+					stack[sp - 1] = (double) a - (double) b;
+				}
+				case OpCode.MULTIPLY -> {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(frame, ip, a, b);
+					stack[sp - 1] = (double) a * (double) b;
+				}
+				case OpCode.DIVIDE -> {
+					Object b = stack[--sp];
+					Object a = stack[sp - 1];
+					checkNumberOperands(frame, ip, a, b);
+					stack[sp - 1] = (double) a / (double) b;
+				}
+				case OpCode.NOT -> stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+				case OpCode.NEGATE -> {
+					if (!(stack[sp - 1] instanceof Double)) {
+						throw error(frame, ip, "Operand must be a number.");
+					}
+					stack[sp - 1] = -(double) stack[sp - 1];
+				}
+				case OpCode.PRINT -> System.out.println(Interpreter.stringify(stack[--sp]));
+
+				case OpCode.JUMP -> ip += readShort(code, ip) + 2;
+				case OpCode.JUMP_IF_FALSE -> {
+					if (!Interpreter.isTruthy(stack[sp - 1])) {
+						ip += readShort(code, ip);
+					}
+					ip += 2;
+				}
+				case OpCode.POP_JUMP_IF_FALSE -> {
+					if (!Interpreter.isTruthy(stack[--sp])) {
+						ip += readShort(code, ip);
+					}
+					ip += 2;
+				}
+				case OpCode.LOOP -> ip -= readShort(code, ip) - 2;
+
+				case OpCode.CALL -> {
+					int argCount = code[ip++] & 0xff;
+					frame.ip = ip;
+					stackTop = sp;
+					boolean pushed = call(frame, argCount);
+					stack = this.stack;
+					sp = stackTop;
+					if (pushed) {
+						frame = frames[frameCount - 1];
+						code = frame.chunk.code;
+						constants = frame.chunk.constants;
+						upvalues = frame.upvalues;
+						base = frame.base;
+						ip = frame.ip;
+					}
+				}
+				case OpCode.TAIL_CALL -> {
+					int argCount = code[ip++] & 0xff;
+					frame.ip = ip;
+					if (stack[sp - argCount - 1] instanceof LoxFunction function) {
+						// Run the callee in place of the returning function
+						checkArity(frame, function.arity(), argCount);
+						closeUpvalues(base);
+						System.arraycopy(stack, sp - argCount - 1, stack, base, argCount + 1);
+						Arrays.fill(stack, base + argCount + 1, sp, null);
+						sp = base + argCount + 1;
+						if (function.receiver != null) {
+							stack[base] = function.receiver;
+						}
+						frame.function = function;
+						frame.chunk = function.declaration.chunk;
+						frame.upvalues = function.upvalues;
+						ensureStack(sp + frame.chunk.count);
+						stack = this.stack;
+						code = frame.chunk.code;
+						constants = frame.chunk.constants;
+						upvalues = frame.upvalues;
+						ip = 0;
+					} else {
+						stackTop = sp;
+						boolean pushed = call(frame, argCount);
+						stack = this.stack;
+						sp = stackTop;
+						if (pushed) {
+							frame = frames[frameCount - 1];
+							code = frame.chunk.code;
+							constants = frame.chunk.constants;
+							upvalues = frame.upvalues;
+							base = frame.base;
+							ip = frame.ip;
+						}
+					}
+				}
+				case OpCode.CLOSURE, OpCode.METHOD -> {
+					boolean isMethod = code[ip - 1] == OpCode.METHOD;
+					Stmt.Function declaration = (Stmt.Function) constants[readShort(code, ip)];
+					int count = code[ip + 2] & 0xff;
+					ip += 3;
+
+					Upvalue[] captured = count == 0 ? NO_UPVALUES : new Upvalue[count];
+					for (int i = 0; i < count; i++) {
+						int index = readShort(code, ip + 1);
+						captured[i] = code[ip] != 0 ? captureUpvalue(base + index) : upvalues[index];
+						ip += 3;
+					}
+					boolean isInitializer = isMethod && declaration.name.symbol == SymbolTable.INIT;
+					stack[sp++] = new LoxFunction(declaration, captured, isInitializer);
+				}
+				case OpCode.RETURN -> {
+					// Initializers return their receiver themselves
+					Object result = stack[sp - 1];
+					closeUpvalues(base);
+
+					frameCount--;
+					Arrays.fill(stack, base, sp, null);
+					sp = base;
+					if (frameCount == 0) {
+						stackTop = sp;
+						return;
+					}
+					stack[sp++] = result;
+
+					frame = frames[frameCount - 1];
+					code = frame.chunk.code;
+					constants = frame.chunk.constants;
+					upvalues = frame.upvalues;
+					base = frame.base;
+					ip = frame.ip;
+				}
+
+				case OpCode.INHERIT -> {
+					if (!(stack[sp - 1] instanceof LoxClass)) {
+						throw error(frame, ip, "Superclass must be a class.");
+					}
+				}
+				case OpCode.CLASS, OpCode.SUBCLASS -> {
+					boolean isSubclass = code[ip - 1] == OpCode.SUBCLASS;
+					Token name = (Token) constants[readShort(code, ip)];
+					int methodCount = code[ip + 2] & 0xff;
+					ip += 3;
+
+					SymbolMap<LoxFunction> methods = new SymbolMap<>();
+					for (int i = 0; i < methodCount; i++) {
+						// Methods are popped in reverse, so the last definition wins
+						LoxFunction method = (LoxFunction) stack[--sp];
+						if (!methods.containsKey(method.declaration.name.symbol)) {
+							methods.put(method.declaration.name.symbol, method);
+						}
+					}
+					// The superclass stays on the stack as "super"
+					LoxClass superclass = isSubclass ? (LoxClass) stack[sp - 1] : null;
+					stack[sp++] = new LoxClass(name.lexeme(), superclass, methods);
+				}
+
+				default -> throw error(frame, ip, "Unknown opcode " + code[ip - 1] + ".");
+			}
+		}
+	}
+
+	/**
+	 * Calls the callee below the given number of arguments on the stack. Natives
+	 * and classes without initializer are called right away, leaving their result
+	 * on the stack, while Lox functions get a new call frame.
+	 *
+	 * @param frame    The frame of the caller
+	 * @param argCount The number of arguments
+	 * @return true if a new call frame was pushed
+	 */
+	private boolean call(CallFrame frame, int argCount) {
+		Object callee = stack[stackTop - argCount - 1];
+
+		if (callee instanceof LoxFunction) {
+			LoxFunction function = (LoxFunction) callee;
+			return callFunction(frame, function, function.receiver, argCount);
+		}
+
+		if (callee instanceof LoxClass) {
+			LoxClass loxClass = (LoxClass) callee;
+			LoxInstance instance = new LoxInstance(loxClass);
+			LoxFunction initializer = loxClass.findMethod(SymbolTable.INIT);
+			if (initializer != null) {
+				return callFunction(frame, initializer, instance, argCount);
+			}
+			checkArity(frame, 0, argCount);
+			stack[stackTop - 1] = instance;
+			return false;
+		}
+
+		if (callee instanceof LoxCallable) {
+			LoxCallable function = (LoxCallable) callee;
+			checkArity(frame, function.arity(), argCount);
+			int first = stackTop - argCount;
+			// Natives don't need the tree-walking interpreter
+			Object result = switch (argCount) {
+				case 0 -> function.call0(null);
+				case 1 -> function.call1(null, stack[first]);
+				case 2 -> function.call2(null, stack[first], stack[first + 1]);
+				case 3 -> function.call3(null, stack[first], stack[first + 1], stack[first + 2]);
+				case 4 -> function.call4(null, stack[first], stack[first + 1], stack[first + 2], stack[first + 3]);
+				default -> function.call(null, Arrays.copyOfRange(stack, first, stackTop));
+			};
+			Arrays.fill(stack, stackTop - argCount, stackTop, null);
+			stackTop -= argCount;
+			stack[stackTop - 1] = result;
+			return false;
+		}
+
+		throw error(frame, frame.ip, "Can only call functions or classes.");
+	}
+
+	/**
+	 * Pushes the call frame of a Lox function, whose arguments are already on
+	 * the stack.
+	 *
+	 * @param receiver The instance "this" refers to, or null for functions
+	 */
+	private boolean callFunction(CallFrame frame, LoxFunction function, LoxInstance receiver, int argCount) {
+		checkArity(frame, function.arity(), argCount);
+		int base = stackTop - argCount - 1;
+		if (receiver != null) {
+			stack[base] = receiver;
+		}
+		pushFrame(function, function.declaration.chunk, function.upvalues, base);
+		return true;
+	}
+
+	/**
+	 * Pushes a call frame, reserving the stack slots its chunk may use above the
+	 * current top of the stack.
+	 */
+	private void pushFrame(LoxFunction function, Chunk chunk, Upvalue[] upvalues, int base) {
+		if (frameCount == FRAMES_MAX) {
+			throw overflow();
+		}
+		ensureStack(stackTop + chunk.count);
+		if (frameCount == frames.length) {
+			frames = Arrays.copyOf(frames, Math.min(frames.length * 2, FRAMES_MAX));
+		}
+		CallFrame frame = frames[frameCount];
+		if (frame == null) {
+			frame = frames[frameCount] = new CallFrame();
+		}
+		frameCount++;
+
+		frame.function = function;
+		frame.chunk = chunk;
+		frame.upvalues = upvalues;
+		frame.ip = 0;
+		frame.base = base;
+	}
+
+	/**
+	 * Grows the stack to the given number of slots if it's smaller. Every
+	 * instruction pushes at most one value and loops leave the stack as they
+	 * found it, so a chunk never uses more slots than it has bytes of code.
+	 */
+	private void ensureStack(int size) {
+		if (size > stack.length) {
+			stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+		}
+	}
+
+	/**
+	 * Returns the upvalue of a stack slot, reusing the open one if a closure
+	 * already captured the slot.
+	 */
+	private Upvalue captureUpvalue(int slot) {
+		Upvalue previous = null;
+		Upvalue upvalue = openUpvalues;
+		while (upvalue != null && upvalue.slot > slot) {
+			previous = upvalue;
+			upvalue = upvalue.next;
+		}
+		if (upvalue != null && upvalue.slot == slot) {
+			return upvalue;
+		}
+
+		Upvalue created = new Upvalue(slot);
+		created.next = upvalue;
+		if (previous == null) {
+			openUpvalues = created;
+		} else {
+			previous.next = created;
+		}
+		return created;
+	}
+
+	/**
+	 * Closes the open upvalues of the given stack slot and the ones above it.
+	 */
+	private void closeUpvalues(int last) {
+		while (openUpvalues != null && openUpvalues.slot >= last) {
+			Upvalue upvalue = openUpvalues;
+			upvalue.value = stack[upvalue.slot];
+			upvalue.slot = -1;
+			openUpvalues = upvalue.next;
+			upvalue.next = null;
+		}
+	}
+
+	private void defineGlobal(int symbol, Object value) {
+		if (symbol >= globals.length) {
+			int length = globals.length;
+			globals = Arrays.copyOf(globals, Math.max(symbol + 1, length * 2));
+			Arrays.fill(globals, length, globals.length, UNDEFINED);
+		}
+		globals[symbol] = value;
+	}
+
+	private RuntimeError undefined(CallFrame frame, int ip, int symbol) {
+		return new RuntimeError(frame.chunk.getLine(ip - 1),
+				"Undefined variable '" + SymbolTable.name(symbol) + "'.");
+	}
+
+	private void checkArity(CallFrame frame, int arity, int argCount) {
+		if (argCount != arity) {
+			throw error(frame, frame.ip, "Exptected " + arity + " arguments but got " + argCount + ".");
+		}
+	}
+
+	private void checkNumberOperands(CallFrame frame, int ip, Object a, Object b) {
+		if (a instanceof Double && b instanceof Double) {
+			return;
+		}
+		throw error(frame, ip, "Operands must be numbers.");
+	}
+
+	/**
+	 * Creates a runtime error located at the line of the instruction being run.
+	 *
+	 * @param frame The frame running the instruction
+	 * @param ip    The offset following the instruction's opcode
+	 */
+	private RuntimeError error(CallFrame frame, int ip, String message) {
+		return new RuntimeError(frame.chunk.getLine(ip - 1), message);
+	}
+
+	/**
+	 * Creates the error reported when calls nest deeper than {@link #FRAMES_MAX},
+	 * the way the tree-walking interpreter reports running out of Java stack.
+	 */
+	private RuntimeError overflow() {
+		CallFrame frame = frames[frameCount - 1];
+		return error(frame, frame.ip, "Stack overflow.");
+	}
+
+	private static int readShort(byte[] code, int offset) {
+		return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+	}
+
+}
@@ -0,0 +1,211 @@
+package tech.riadh.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Runs the Lox programs of the {@code benchmarks} directory through
+ * {@link Lox#main(String[])}, all in one JVM, and reports for each program the
+ * wall time of a run, the runs per second, and the bytes allocated and the
+ * time spent collecting garbage during a run.
+ *
+ * Every program first runs a few times to warm the JVM up, then the runs that
+ * follow are measured. Programs must run without errors, since Lox exits the
+ * JVM on errors, and their output is discarded. Options other than the runner's
+ * own go to Lox, to measure the VM for instance:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes tech.riadh.lox.BenchmarkRunner \
+ *     [--warmup=N] [--runs=N] [Lox options] [programs or directories]
+ * </pre>
+ */
+public class BenchmarkRunner {
+	private static final int DEFAULT_WARMUP = 3;
+	private static final int DEFAULT_RUNS = 5;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int warmup = DEFAULT_WARMUP;
+		int runs = DEFAULT_RUNS;
+		List<String> options = new ArrayList<>();
+		List<Path> programs = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.startsWith("--warmup=")) {
+				warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+			} else if (arg.startsWith("--runs=")) {
+				runs = Integer.parseInt(arg.substring("--runs=".length()));
+			} else if (arg.startsWith("--")) {
+				options.add(arg);
+			} else {
+				programs.addAll(programs(Paths.get(arg)));
+			}
+		}
+		if (programs.isEmpty()) {
+			programs.addAll(programs(Paths.get("benchmarks")));
+		}
+
+		Allocations allocations = new Allocations();
+		System.out.printf("%-22s %10s %10s %10s %12s %10s%n", "program", "mean ms", "min ms", "ops/sec",
+				"alloc MB", "gc ms");
+		for (Path program : programs) {
+			String[] lox = Stream.concat(options.stream(), Stream.of(program.toString())).toArray(String[]::new);
+			for (int i = 0; i < warmup; i++) {
+				run(lox);
+			}
+
+			long totalTime = 0;
+			long minTime = Long.MAX_VALUE;
+			long allocated = 0;
+			long gcTime = 0;
+			for (int i = 0; i < runs; i++) {
+				long allocatedBefore = allocations.allocated();
+				long gcTimeBefore = gcTime();
+				long start = System.nanoTime();
+				run(lox);
+				long time = System.nanoTime() - start;
+				allocated += allocations.allocated() - allocatedBefore;
+				gcTime += gcTime() - gcTimeBefore;
+				totalTime += time;
+				minTime = Math.min(minTime, time);
+			}
+
+			double mean = (double) totalTime / runs;
+			System.out.printf("%-22s %10.1f %10.1f %10.2f %12.1f %10.1f%n", program.getFileName(), mean / 1e6,
+					minTime / 1e6, 1e9 / mean, allocated / (double) runs / (1024 * 1024), gcTime / (double) runs);
+		}
+	}
+
+	/**
+	 * Returns the given program, or the programs of the given directory.
+	 */
+	private static List<Path> programs(Path path) throws IOException {
+		if (!Files.isDirectory(path)) {
+			return List.of(path);
+		}
+		try (Stream<Path> files = Files.list(path)) {
+			return files.filter(file -> file.toString().endsWith(".lox")).sorted().toList();
+		}
+	}
+
+	/**
+	 * Runs a program, discarding what it prints.
+	 */
+	private static void run(String[] args) throws IOException, InterruptedException {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			Lox.main(args);
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	/**
+	 * Returns the milliseconds spent collecting garbage since the JVM started.
+	 */
+	private static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(collector.getCollectionTime(), 0);
+		}
+		return time;
+	}
+
+	/**
+	 * Counts the bytes allocated on the heap by all threads, which includes the
+	 * threads Lox starts to run programs and load modules.
+	 *
+	 * The count is the heap in use plus what every collection reclaimed, as
+	 * reported by the notifications of the collectors. It's approximate, since
+	 * the heap in use includes the unused part of the buffers threads allocate
+	 * from.
+	 */
+	private static class Allocations implements NotificationListener {
+		private final Set<String> heapPools = new HashSet<>();
+		private long reclaimed = 0;
+		private long notified;
+
+		Allocations() {
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					heapPools.add(pool.getName());
+				}
+			}
+			notified = collections();
+			for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+				((NotificationEmitter) collector).addNotificationListener(this, null, null);
+			}
+		}
+
+		@Override
+		public synchronized void handleNotification(Notification notification, Object handback) {
+			if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+				return;
+			}
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+					.from((CompositeData) notification.getUserData());
+			reclaimed += used(info.getGcInfo().getMemoryUsageBeforeGc())
+					- used(info.getGcInfo().getMemoryUsageAfterGc());
+			notified++;
+			notifyAll();
+		}
+
+		/**
+		 * Returns the bytes allocated since the JVM started, waiting for the
+		 * notifications of the collections that already happened.
+		 */
+		synchronized long allocated() throws InterruptedException {
+			long deadline = System.nanoTime() + 1_000_000_000L;
+			while (notified < collections() && System.nanoTime() < deadline) {
+				wait(10);
+			}
+
+			long used = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					used += pool.getUsage().getUsed();
+				}
+			}
+			return used + reclaimed;
+		}
+
+		private long used(Map<String, MemoryUsage> pools) {
+			long used = 0;
+			for (Map.Entry<String, MemoryUsage> pool : pools.entrySet()) {
+				if (heapPools.contains(pool.getKey())) {
+					used += pool.getValue().getUsed();
+				}
+			}
+			return used;
+		}
+
+		private static long collections() {
+			long count = 0;
+			for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+				count += Math.max(collector.getCollectionCount(), 0);
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package tech.riadh.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class InterpreterTest {
+
+	private final Interpreter interpreter = new Interpreter();
+
+	private List<Stmt> run(String source) {
+		List<Stmt> statements = new Parser(new Scanner(source)).parse();
+		new Resolver().resolve(statements);
+		interpreter.interpret(statements);
+		return statements;
+	}
+
+	private Object global(String name) {
+		return interpreter.globals.get(new Token(TokenType.IDENTIFIER, name, null, 1));
+	}
+
+	private static Specialization specializationOf(Stmt var) {
+		return ((Expr.Binary) ((Stmt.Var) var).initializer).specialization;
+	}
+
+	@Test
+	public void binaryNodesSpecializeOnFirstOperands() {
+		List<Stmt> statements = run("""
+				var sum = 1 + 2;
+				var text = "a" + "b";
+				var less = 1 < 2;
+				""");
+
+		assertEquals(Specialization.ADD_NUMBERS, specializationOf(statements.get(0)));
+		assertEquals(Specialization.CONCAT_STRINGS, specializationOf(statements.get(1)));
+		assertEquals(Specialization.LESS_NUMBERS, specializationOf(statements.get(2)));
+		assertEquals(3.0, global("sum"));
+		assertEquals("ab", global("text"));
+		assertEquals(true, global("less"));
+	}
+
+	@Test
+	public void failedGuardFallsBackToGenericNode() {
+		List<Stmt> statements = run("""
+				fun add(a, b) {
+				    return a + b;
+				}
+				var number = add(1, 2);
+				var text = add("a", "b");
+				var again = add(3, 4);
+				""");
+
+		Stmt.Function add = (Stmt.Function) statements.get(0);
+		Expr.Binary sum = (Expr.Binary) ((Stmt.Return) add.body.get(0)).value;
+		assertEquals(Specialization.GENERIC, sum.specialization);
+		assertEquals(3.0, global("number"));
+		assertEquals("ab", global("text"));
+		assertEquals(7.0, global("again"));
+	}
+
+	@Test
+	public void numericSubtreesFallBackWhenOperandsChangeType() {
+		List<Stmt> statements = run("""
+				fun combine(a, b) {
+				    return -(a + b) + (a + b) * 2;
+				}
+				fun twice(a, b) {
+				    return (a + b) + (a + b);
+				}
+				var number = combine(1, 2);
+				var sum = twice(1, 2);
+				var text = twice("a", "b");
+				var again = twice(3, 4) < combine(3, 4);
+				""");
+
+		Stmt.Function twice = (Stmt.Function) statements.get(1);
+		Expr.Binary sum = (Expr.Binary) ((Stmt.Return) twice.body.get(0)).value;
+		assertEquals(Specialization.GENERIC, sum.specialization);
+		assertEquals(3.0, global("number"));
+		assertEquals(6.0, global("sum"));
+		assertEquals("abab", global("text"));
+		assertEquals(false, global("again"));
+	}
+
+	@Test
+	public void instancesWithSameFieldsShareShape() {
+		run("""
+				class Point {
+				    init(x, y) {
+				        this.x = x;
+				        this.y = y;
+				    }
+				}
+				var a = Point(1, 2);
+				var b = Point(3, 4);
+				var c = Point(5, 6);
+				c.z = 7;
+				var sum = a.x + b.y + c.x + c.z;
+				b.x = 8;
+				var x = b.x;
+				""");
+
+		LoxInstance a = (LoxInstance) global("a");
+		LoxInstance b = (LoxInstance) global("b");
+		LoxInstance c = (LoxInstance) global("c");
+		assertSame(a.shape, b.shape);
+		assertNotSame(a.shape, c.shape);
+		assertEquals(2, c.shape.slotOf(SymbolTable.intern("z")));
+		assertEquals(17.0, global("sum"));
+		assertEquals(8.0, global("x"));
+		assertEquals(1.0, a.get(new Token(TokenType.IDENTIFIER, "x", null, 1)));
+	}
+
+	@Test
+	public void methodCallsOnlyAllocateTheCallEnvironment() {
+		run("""
+				class Counter {
+				    init() {
+				        this.count = 0;
+				    }
+				    increment() {
+				        this.count = this.count + 1;
+				    }
+				}
+				class Twice < Counter {
+				    increment() {
+				        super.increment();
+				        super.increment();
+				    }
+				}
+				var counter = Twice();
+				""");
+
+		run("""
+				counter.increment();
+				counter.increment();
+				var count = counter.count;
+				""");
+
+		// The receiver lives in the call environment, after the parameters
+		LoxClass twice = (LoxClass) global("Twice");
+		Stmt.Function increment = twice.findMethod(SymbolTable.intern("increment")).declaration;
+		assertEquals(1, increment.localCount);
+		assertEquals(4.0, global("count"));
+	}
+
+	@Test
+	public void tailCallsDoNotGrowTheStack() {
+		run("""
+				fun count(n, total) {
+				    if (n == 0) return total;
+				    return count(n - 1, total + 1);
+				}
+				class Node {
+				    init(next) {
+				        this.next = next;
+				    }
+				    length(total) {
+				        if (this.next == nil) return total + 1;
+				        return this.next.length(total + 1);
+				    }
+				}
+				var list = nil;
+				for (var i = 0; i < 100000; i = i + 1) list = Node(list);
+				var counted = count(1000000, 0);
+				var length = list.length(0);
+				""");
+
+		assertEquals(1000000.0, global("counted"));
+		assertEquals(100000.0, global("length"));
+	}
+
+	@Test
+	public void stackOverflowIsARuntimeError() {
+		Lox.hadRuntimeError = false;
+		run("""
+				fun forever(n) {
+				    return 1 + forever(n);
+				}
+				forever(0);
+				""");
+
+		assertTrue(Lox.hadRuntimeError);
+		Lox.hadRuntimeError = false;
+	}
+
+	@Test
+	public void compiledFunctionsEliminateTailCalls() throws InterruptedException {
+		interpreter.jit = new Jit();
+		List<List<Stmt>> statements = new ArrayList<>();
+		// Nesting the calls would overflow a stack this small
+		Thread thread = new Thread(null, () -> statements.add(run("""
+				fun even(n) {
+				    if (n == 0) return true;
+				    return odd(n - 1);
+				}
+				fun odd(n) {
+				    if (n == 0) return false;
+				    return even(n - 1);
+				}
+				class Walker {
+				    walk(n) {
+				        if (n == 0) return "done";
+				        return this.walk(n - 1);
+				    }
+				}
+				var parity = even(100001);
+				var walked = Walker().walk(100000);
+				""")), "lox", 512 * 1024);
+		thread.start();
+		thread.join();
+
+		assertNotNull(((Stmt.Function) statements.get(0).get(0)).compiled);
+		assertEquals(false, global("parity"));
+		assertEquals("done", global("walked"));
+	}
+
+	@Test
+	public void compiledOperationsHandleOperandsOtherThanNumbers() {
+		interpreter.jit = new Jit();
+		List<Stmt> statements = run("""
+				fun add(a, b) {
+				    return a + b;
+				}
+				fun less(a, b) {
+				    if (a < b) return "less";
+				    return "not less";
+				}
+				fun same(a, b) {
+				    return a == b;
+				}
+				var i = 0;
+				while (i < 2000) {
+				    add(i, 1);
+				    less(i, 1);
+				    same(i, i);
+				    i = i + 1;
+				}
+				var nan = 0 / 0;
+				var text = add("a", "b");
+				var number = add(0.5, 2);
+				var nanLess = less(nan, 1);
+				var nanSame = same(nan, nan);
+				var zeroSame = same(0, -0);
+				var nilSame = same(nil, nil);
+				""");
+
+		assertNotNull(((Stmt.Function) statements.get(0)).compiled);
+		assertEquals("ab", global("text"));
+		assertEquals(2.5, global("number"));
+		assertEquals("not less", global("nanLess"));
+		// Numbers compare like Double.equals, as in the tree-walker
+		assertEquals(true, global("nanSame"));
+		assertEquals(false, global("zeroSame"));
+		assertEquals(true, global("nilSame"));
+	}
+
+	@Test
+	public void hotFunctionsGetCompiled() {
+		interpreter.jit = new Jit();
+		List<Stmt> statements = run("""
+				fun count(n) {
+				    var total = 0;
+				    var i = 0;
+				    while (i < n) {
+				        if (i > 2 and i != 5) total = total + i;
+				        i = i + 1;
+				    }
+				    return total;
+				}
+				fun nested() {
+				    fun inner() {}
+				    return inner;
+				}
+				var before = count(10);
+				var i = 0;
+				while (i < 2000) {
+				    nested();
+				    i = i + 1;
+				}
+				var after = count(2000);
+				var again = count(10);
+				""");
+
+		Stmt.Function count = (Stmt.Function) statements.get(0);
+		Stmt.Function nested = (Stmt.Function) statements.get(1);
+		assertNotNull(count.compiled);
+		assertNull(nested.compiled);
+		assertEquals(37.0, global("before"));
+		assertEquals(1998992.0, global("after"));
+		assertEquals(37.0, global("again"));
+	}
+
+	@Test
+	public void longConcatenationsShareTheirBuffer() {
+		run("""
+				var text = "";
+				for (var i = 0; i < 1000; i = i + 1) {
+				    text = text + "ab";
+				}
+				var prefix = text;
+				text = text + "c";
+				var other = prefix + "d";
+				var same = prefix + "c" == text;
+				""");
+
+		assertTrue(global("text") instanceof Rope);
+		assertEquals(2001, global("text").toString().length());
+		assertTrue(global("text").toString().endsWith("abc"));
+		assertTrue(global("other").toString().endsWith("abd"));
+		assertEquals(2000, global("prefix").toString().length());
+		assertEquals(true, global("same"));
+	}
+}
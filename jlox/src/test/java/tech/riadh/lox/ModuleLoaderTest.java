@@ -0,0 +1,54 @@
+package tech.riadh.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import tech.riadh.lox.ModuleLoader.Module;
+
+public class ModuleLoaderTest {
+
+	@Test
+	public void modulesRunOnceAfterTheirImports() throws IOException {
+		Path directory = Files.createTempDirectory("modules");
+		Path main = write(directory, "main.lox", "import \"a.lox\"; import \"b.lox\";");
+		write(directory, "a.lox", "import \"common.lox\";");
+		write(directory, "b.lox", "import \"common.lox\";");
+		write(directory, "common.lox", "var shared = 1;");
+
+		ModuleLoader loader = new ModuleLoader(1024 * 1024, null);
+		List<Module> order = loader.schedule(loader.loadMain(main));
+
+		assertEquals(List.of("common.lox", "a.lox", "b.lox", "main.lox"),
+				order.stream().map(module -> module.path.getFileName().toString()).toList());
+		assertEquals(List.of(), loader.schedule(loader.loadMain(directory.resolve("a.lox"))));
+		assertSame(order.get(1), loader.loadMain(directory.resolve("a.lox")));
+	}
+
+	@Test
+	public void errorsAreKeptByModuleAndNamedAfterImportedOnes() throws IOException {
+		Path directory = Files.createTempDirectory("modules");
+		Path main = write(directory, "main.lox", "import \"a.lox\";\nimport \"missing.lox\";");
+		Path a = write(directory, "a.lox", "import \"main.lox\";\nreturn 1;");
+
+		ModuleLoader loader = new ModuleLoader(1024 * 1024, null);
+		List<Module> order = loader.schedule(loader.loadMain(main));
+
+		assertEquals(List.of(
+				"[" + a + ":2] Error  at 'return': Can't return outside of a function.",
+				"[" + a + ":1] Error  at 'import': Circular import of 'main.lox'."),
+				order.get(0).errors.messages());
+		assertEquals(List.of("[2] Error  at '\"missing.lox\"': Can't read module 'missing.lox'."),
+				order.get(1).errors.messages());
+	}
+
+	private static Path write(Path directory, String name, String source) throws IOException {
+		return Files.writeString(directory.resolve(name), source);
+	}
+}
@@ -0,0 +1,83 @@
+package tech.riadh.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class OptimizerTest {
+
+	private static List<Stmt> optimize(String source) {
+		List<Stmt> statements = new Parser(new Scanner(source)).parse();
+		new Resolver().resolve(statements);
+		statements = new Optimizer().optimize(statements);
+		new Resolver().resolve(statements);
+		return statements;
+	}
+
+	private static Expr printed(Stmt stmt) {
+		return ((Stmt.Print) stmt).expression;
+	}
+
+	@Test
+	public void constantExpressionsAreFolded() {
+		List<Stmt> statements = optimize("""
+				print 1 + 2 * 3;
+				print "a" + "b";
+				print !(1 < 2) or -4;
+				""");
+
+		assertEquals(7.0, ((Expr.Literal) printed(statements.get(0))).value);
+		assertEquals("ab", ((Expr.Literal) printed(statements.get(1))).value);
+		assertEquals(-4.0, ((Expr.Literal) printed(statements.get(2))).value);
+	}
+
+	@Test
+	public void failingOperationsAreNotFolded() {
+		List<Stmt> statements = optimize("""
+				print "a" - 1;
+				print -"a";
+				""");
+
+		assertInstanceOf(Expr.Binary.class, printed(statements.get(0)));
+		assertInstanceOf(Expr.Unary.class, printed(statements.get(1)));
+	}
+
+	@Test
+	public void unreachableCodeIsRemoved() {
+		List<Stmt> statements = optimize("""
+				if (false) print "then"; else print "else";
+				while (nil) print "loop";
+				fun f() {
+				    return 1;
+				    print "after";
+				}
+				""");
+
+		assertEquals(2, statements.size());
+		assertEquals("else", ((Expr.Literal) printed(statements.get(0))).value);
+		assertEquals(1, ((Stmt.Function) statements.get(1)).body.size());
+	}
+
+	@Test
+	public void storesToUnreadLocalsAreRemoved() {
+		List<Stmt> statements = optimize("""
+				fun f(a) {
+				    var unused = 1;
+				    var effect = a();
+				    unused = a() + 1;
+				    var used = 2;
+				    return used;
+				}
+				""");
+
+		List<Stmt> body = ((Stmt.Function) statements.get(0)).body;
+		assertEquals(4, body.size());
+		assertInstanceOf(Expr.Call.class, ((Stmt.Expression) body.get(0)).expression);
+		assertInstanceOf(Expr.Binary.class, ((Stmt.Expression) body.get(1)).expression);
+		assertTrue(body.get(2) instanceof Stmt.Var);
+	}
+}
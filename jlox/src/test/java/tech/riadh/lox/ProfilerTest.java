@@ -0,0 +1,84 @@
+package tech.riadh.lox;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ProfilerTest {
+
+	@Test
+	public void callsAreCountedPerFunctionAndStack() throws IOException {
+		List<Stmt> statements = new Parser(new Scanner("""
+				fun fib(n) {
+				    if (n < 2) return n;
+				    return fib(n - 1) + fib(n - 2);
+				}
+				fun run() {
+				    var result = fib(10);
+				    return result;
+				}
+				print run();
+				""")).parse();
+		new Resolver().resolve(statements);
+		Interpreter interpreter = new Interpreter();
+		interpreter.profiler = new Profiler();
+		interpreter.interpret(statements);
+
+		ByteArrayOutputStream report = new ByteArrayOutputStream();
+		interpreter.profiler.report(new PrintStream(report));
+		Path folded = Files.createTempFile("profile", ".folded");
+		interpreter.profiler.writeFolded(folded);
+
+		assertTrue(report.toString().matches("(?s).*\\n\\s+177\\s.*fib:1\\n.*"));
+		assertTrue(report.toString().matches("(?s).*\\n\\s+1\\s.*run:5\\n.*"));
+		assertTrue(Files.readString(folded).contains("<script>;run:5;fib:1;fib:1 "));
+	}
+
+	@Test
+	public void runtimeErrorsExitTheFunctionsTheyUnwind() throws IOException {
+		Interpreter interpreter = new Interpreter();
+		interpreter.profiler = new Profiler();
+		for (String source : List.of("""
+				fun fail() {
+				    return nil + 1;
+				}
+				fail();
+				""", """
+				var sum = 0;
+				for (var i = 0; i < 100000; i = i + 1) sum = sum + i;
+				""")) {
+			List<Stmt> statements = new Parser(new Scanner(source)).parse();
+			new Resolver().resolve(statements);
+			interpreter.interpret(statements);
+		}
+
+		Path folded = Files.createTempFile("profile", ".folded");
+		interpreter.profiler.report(new PrintStream(OutputStream.nullOutputStream()));
+		interpreter.profiler.writeFolded(folded);
+
+		// The loop is charged to the script, not to the function that failed
+		String stacks = Files.readString(folded);
+		long script = micros(stacks, "<script>");
+		assertTrue(script > micros(stacks, "<script>;fail:1"), stacks);
+	}
+
+	/**
+	 * Returns the self time of the given stack in folded stacks.
+	 */
+	private static long micros(String folded, String stack) {
+		for (String line : folded.split("\n")) {
+			if (line.startsWith(stack + " ")) {
+				return Long.parseLong(line.substring(stack.length() + 1));
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,75 @@
+package tech.riadh.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ProgramCacheTest {
+
+	private static Object run(List<Stmt> statements, String name) {
+		Interpreter interpreter = new Interpreter();
+		interpreter.interpret(statements);
+		return interpreter.globals.get(new Token(TokenType.IDENTIFIER, name, null, 1));
+	}
+
+	@Test
+	public void cachedProgramsRunLikeCompiledOnes() throws IOException {
+		Path directory = Files.createTempDirectory("cache");
+		Path script = Files.writeString(directory.resolve("main.lox"), """
+				class Counter {
+				    init() { this.count = 0; }
+				    add(n) { this.count = this.count + n; return this; }
+				}
+				fun total() {
+				    var counter = Counter();
+				    for (var i = 0; i < 10; i = i + 1) counter.add(i);
+				    return counter.count;
+				}
+				var result = total();
+				""");
+
+		ProgramCache cache = new ProgramCache(false);
+		List<Stmt> compiled = cache.compile(script, new CompileErrors(script));
+		assertTrue(Files.exists(directory.resolve(".loxcache/main.loxc")));
+		List<Stmt> cached = cache.compile(script, new CompileErrors(script));
+
+		assertEquals(45.0, run(compiled, "result"));
+		assertEquals(45.0, run(cached, "result"));
+	}
+
+	@Test
+	public void cachedProgramsKeepLongStrings() throws IOException {
+		Path directory = Files.createTempDirectory("cache");
+		String text = "lox ".repeat(20000);
+		Path script = Files.writeString(directory.resolve("main.lox"), "var result = \"" + text + "\";\n");
+
+		ProgramCache cache = new ProgramCache(false);
+		cache.compile(script, new CompileErrors(script));
+		List<Stmt> cached = cache.compile(script, new CompileErrors(script));
+
+		assertEquals(text, run(cached, "result"));
+	}
+
+	@Test
+	public void onlyProgramsWithoutErrorsAreCached() throws IOException {
+		Path directory = Files.createTempDirectory("cache");
+		Path broken = Files.writeString(directory.resolve("broken.lox"), "return 1;\n");
+		Path fine = Files.writeString(directory.resolve("fine.lox"), "var result = 1;\n");
+
+		ProgramCache cache = new ProgramCache(false);
+		CompileErrors errors = new CompileErrors(broken);
+		cache.compile(broken, errors);
+		cache.compile(fine, new CompileErrors(fine));
+
+		assertTrue(errors.any());
+		assertFalse(Files.exists(directory.resolve(".loxcache/broken.loxc")));
+		assertTrue(Files.exists(directory.resolve(".loxcache/fine.loxc")));
+	}
+}
@@ -0,0 +1,146 @@
+package tech.riadh.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the resolver only gives an environment to the scopes that need
+ * one.
+ */
+public class ResolverTest {
+
+	private final Interpreter interpreter = new Interpreter();
+
+	/**
+	 * Resolves and runs the source, returning its statements.
+	 */
+	private List<Stmt> run(String source) {
+		List<Stmt> statements = new Parser(new Scanner(source)).parse();
+		new Resolver().resolve(statements);
+		interpreter.interpret(statements);
+		return statements;
+	}
+
+	private Object global(String name) {
+		return interpreter.globals.get(new Token(TokenType.IDENTIFIER, name, null, 1));
+	}
+
+	/**
+	 * Runs a program without printing, returning the number of environments
+	 * its blocks and loops created.
+	 */
+	private long scopeEnvironments(String source) {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new ByteArrayOutputStream(), true));
+		try {
+			long before = interpreter.scopeEnvironments;
+			run(source);
+			return interpreter.scopeEnvironments - before;
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	@Test
+	public void testScriptLoopsAllocateNoEnvironmentPerIteration() throws IOException {
+		// The loop of test.lox runs 20 times, its body declares nothing
+		long elided = scopeEnvironments(Files.readString(Path.of("test.lox")));
+		long allocating = scopeEnvironments("""
+				for (var i = 0; i < 20; i = i + 1) {
+				    var j = i;
+				    fun get() { return j; }
+				}
+				""");
+
+		// The loop variable's scope and the block of showA
+		assertEquals(2, elided);
+		// The loop variable's scope and one body scope per iteration
+		assertEquals(1 + 20, allocating);
+	}
+
+	@Test
+	public void globalLoopAllocatesOnlyTheInitializerScope() {
+		List<Stmt> statements = run("""
+				var sum = 0;
+				for (var i = 0; i < 20; i = i + 1) {
+				    sum = sum + i;
+				}
+				""");
+
+		// Only the loop variable gets a scope, the body runs in it
+		Stmt.For loop = (Stmt.For) statements.get(1);
+		assertEquals(1, loop.localCount);
+		assertEquals(0, ((Stmt.Block) loop.body).localCount);
+		assertEquals(190.0, global("sum"));
+	}
+
+	@Test
+	public void loopInFunctionSharesTheCallEnvironment() {
+		List<Stmt> statements = run("""
+				fun sum(n) {
+				    var total = 0;
+				    for (var i = 0; i < n; i = i + 1) {
+				        var square = i * i;
+				        total = total + square;
+				    }
+				    return total;
+				}
+				var result = sum(10);
+				""");
+
+		// n, total, i and square all live in the call environment
+		Stmt.Function sum = (Stmt.Function) statements.get(0);
+		Stmt.For loop = (Stmt.For) sum.body.get(1);
+		assertEquals(4, sum.localCount);
+		assertEquals(0, loop.localCount);
+		assertEquals(0, ((Stmt.Block) loop.body).localCount);
+		assertEquals(285.0, global("result"));
+	}
+
+	@Test
+	public void capturedLoopVariablesKeepOneScopePerIteration() {
+		List<Stmt> statements = run("""
+				var first;
+				var last;
+				for (var i = 0; i < 3; i = i + 1) {
+				    var x = i;
+				    fun get() {
+				        return x;
+				    }
+				    if (i == 0) first = get;
+				    last = get;
+				}
+				var result = first() + last() * 10;
+				""");
+
+		// The body gets a scope of its own for the closures to capture
+		Stmt.For loop = (Stmt.For) statements.get(2);
+		assertEquals(1, loop.localCount);
+		assertEquals(2, ((Stmt.Block) loop.body).localCount);
+		assertEquals(20.0, global("result"));
+	}
+
+	@Test
+	public void loopsSteppedByAConstantAreCounted() {
+		List<Stmt> statements = new Parser(new Scanner("""
+				for (var i = 10; i >= 0; i = i - 2) print i;
+				for (var i = 1; i < 10; i = i * 2) print i;
+				""")).parse();
+		new Resolver().resolve(statements);
+
+		Stmt.For counted = (Stmt.For) statements.get(0);
+		assertNotNull(counted.counter);
+		assertEquals(-2.0, counted.step);
+		assertNull(((Stmt.For) statements.get(1)).counter);
+	}
+}
@@ -0,0 +1,38 @@
+package tech.riadh.lox;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SamplerTest {
+
+	@Test
+	public void samplesShowTheLoxStackAndLine() throws IOException {
+		List<Stmt> statements = new Parser(new Scanner("""
+				fun fib(n) {
+				    if (n < 2) return n;
+				    return fib(n - 1) + fib(n - 2);
+				}
+				fun run() {
+				    var start = clock();
+				    while (clock() - start < 0.3) fib(12);
+				}
+				run();
+				""")).parse();
+		new Resolver().resolve(statements);
+		Interpreter interpreter = new Interpreter();
+		interpreter.sampler = new Sampler(1000);
+		interpreter.interpret(statements);
+
+		Path folded = Files.createTempFile("sample", ".folded");
+		long samples = interpreter.sampler.finish(folded);
+
+		assertTrue(samples > 0);
+		assertTrue(Files.readString(folded).matches("(?s).*<script>;run:5;fib:1(;fib:1)*;line [23] \\d+\\n.*"));
+	}
+}
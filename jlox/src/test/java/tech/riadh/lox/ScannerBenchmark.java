@@ -0,0 +1,72 @@
+package tech.riadh.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures the throughput of the scanner in MB/s over a generated script,
+ * scanning it both from a string read the way scripts used to be read and from
+ * the memory-mapped file.
+ *
+ * Run it with the test classpath, optionally passing the size of the script in
+ * megabytes (default 16):
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes tech.riadh.lox.ScannerBenchmark 16
+ * </pre>
+ */
+public class ScannerBenchmark {
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) throws IOException {
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		Path script = Files.createTempFile("scanner", ".lox");
+		try {
+			Files.writeString(script, generate(megabytes * 1024 * 1024));
+			long size = Files.size(script);
+
+			report("string", size, () -> new String(Files.readAllBytes(script), StandardCharsets.UTF_8));
+			report("mapped", size, () -> MappedSource.map(script));
+		} finally {
+			Files.delete(script);
+		}
+	}
+
+	private interface Source {
+		CharSequence read() throws IOException;
+	}
+
+	/**
+	 * Reads and scans the script a few times, and prints the best throughput.
+	 */
+	private static void report(String name, long size, Source source) throws IOException {
+		long best = Long.MAX_VALUE;
+		int tokens = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			tokens = new Scanner(source.read()).scanTokens().size();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		double seconds = best / 1e9;
+		System.out.printf("%s: %d tokens, %.1f MB/s%n", name, tokens, size / (1024.0 * 1024.0) / seconds);
+	}
+
+	/**
+	 * Generates a script of roughly the given size out of a few typical
+	 * declarations.
+	 */
+	private static String generate(int size) {
+		StringBuilder script = new StringBuilder(size + 256);
+		for (int i = 0; script.length() < size; i++) {
+			script.append("// Function number ").append(i).append('\n');
+			script.append("fun compute").append(i).append("(a, b) {\n");
+			script.append("    var total = a * ").append(i).append(" + b / 2.5;\n");
+			script.append("    if (total >= 100 and a != b) print \"large\";\n");
+			script.append("    return total - compute").append(i).append(";\n");
+			script.append("}\n");
+		}
+		return script.toString();
+	}
+}
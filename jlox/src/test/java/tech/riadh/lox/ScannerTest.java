@@ -0,0 +1,37 @@
+package tech.riadh.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ScannerTest {
+
+	@Test
+	public void identifiersAreInternedToSymbols() {
+		List<Token> tokens = new Scanner("var count = count2 + count;").scanTokens();
+		Token first = tokens.get(1);
+		Token other = tokens.get(3);
+		Token second = tokens.get(5);
+
+		assertEquals(first.symbol, second.symbol);
+		assertSame(first.lexeme(), second.lexeme());
+		assertNotEquals(first.symbol, other.symbol);
+		assertEquals("count", SymbolTable.name(first.symbol));
+		assertEquals(-1, tokens.get(2).symbol);
+	}
+
+	@Test
+	public void tokensArePulledOneAtATime() {
+		Scanner scanner = new Scanner("print 1; // done\n");
+
+		assertEquals(TokenType.PRINT, scanner.nextToken().type);
+		assertEquals(1.0, scanner.nextToken().literal);
+		assertEquals(TokenType.SEMICOLON, scanner.nextToken().type);
+		assertEquals(TokenType.EOF, scanner.nextToken().type);
+		assertEquals(TokenType.EOF, scanner.nextToken().type);
+	}
+}
@@ -0,0 +1,58 @@
+package tech.riadh.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SnapshotTest {
+
+	private static void run(Interpreter interpreter, String source) {
+		List<Stmt> statements = new Parser(new Scanner(source)).parse();
+		new Resolver().resolve(statements);
+		interpreter.interpret(statements);
+	}
+
+	private static Object global(Interpreter interpreter, String name) {
+		return interpreter.globals.get(new Token(TokenType.IDENTIFIER, name, null, 1));
+	}
+
+	@Test
+	public void restoredGlobalsKeepClosuresAndCycles() throws IOException {
+		Interpreter prelude = new Interpreter();
+		run(prelude, """
+				class Node {
+				    init(value) { this.value = value; this.next = this; }
+				}
+				fun makeCounter() {
+				    var count = 0;
+				    fun counter() { count = count + 1; return count; }
+				    return counter;
+				}
+				var counter = makeCounter();
+				counter();
+				var node = Node(1);
+				""");
+		Path file = Files.createTempFile("prelude", ".img");
+		Snapshot.write(prelude, file);
+
+		Interpreter job = new Interpreter();
+		Snapshot.restore(job, file);
+		run(job, """
+				var second = counter();
+				var third = counter();
+				var value = Node(2).value;
+				""");
+
+		assertEquals(2.0, global(job, "second"));
+		assertEquals(3.0, global(job, "third"));
+		assertEquals(2.0, global(job, "value"));
+		LoxInstance node = (LoxInstance) global(job, "node");
+		assertSame(node, node.get(new Token(TokenType.IDENTIFIER, "next", null, 1)));
+	}
+}
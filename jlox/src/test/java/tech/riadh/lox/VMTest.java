@@ -0,0 +1,95 @@
+package tech.riadh.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class VMTest {
+
+	private String run(String source) {
+		List<Stmt> statements = new Parser(new Scanner(source)).parse();
+		new Resolver().resolve(statements);
+		Chunk script = new Compiler().compile(statements);
+
+		PrintStream out = System.out;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(printed, true));
+		try {
+			new VM().interpret(script);
+		} finally {
+			System.setOut(out);
+		}
+		return printed.toString().replace(System.lineSeparator(), "\n");
+	}
+
+	@Test
+	public void recursionIsBoundedByTheFramesLimit() {
+		// Along with the frames of the script and of deep(0), fills all frames
+		int depth = VM.FRAMES_MAX - 2;
+		String printed = run("""
+				fun deep(n) {
+				    if (n == 0) return 0;
+				    return 1 + deep(n - 1);
+				}
+				fun count(n) {
+				    if (n == 0) return "done";
+				    return count(n - 1);
+				}
+				print deep(%d);
+				print count(1000000);
+				""".formatted(depth));
+
+		assertEquals(depth + "\ndone\n", printed);
+	}
+
+	@Test
+	public void runawayRecursionOverflowsTheStack() {
+		PrintStream err = System.err;
+		ByteArrayOutputStream reported = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(reported, true));
+		try {
+			run("""
+					fun d(n) { return 1 + d(n + 1); }
+					print d(0);
+					""");
+		} finally {
+			System.setErr(err);
+			Lox.hadRuntimeError = false;
+		}
+
+		assertEquals("Stack overflow.\n[line 1]\n", reported.toString().replace(System.lineSeparator(), "\n"));
+	}
+
+	@Test
+	public void closuresKeepCapturedVariablesAfterTheirScopeEnds() {
+		String printed = run("""
+				fun counters() {
+				    var shared = 0;
+				    fun increment() { shared = shared + 1; return shared; }
+				    fun get() { return shared; }
+				    increment();
+				    increment();
+				    return get;
+				}
+				print counters()();
+
+				var first = nil;
+				var last = nil;
+				for (var i = 0; i < 3; i = i + 1) {
+				    var j = i;
+				    fun body() { return j; }
+				    fun loop() { return i; }
+				    if (i == 0) first = body;
+				    last = loop;
+				}
+				print first();
+				print last();
+				""");
+
+		assertEquals("2\n0\n3\n", printed);
+	}
+}
@@ -0,0 +1,136 @@
+#!/usr/bin/env python3
+"""Runs Lox programs through both jlox and clox and compares them.
+
+For every program, the harness checks that both implementations print the same
+stdout and stderr and exit with the same code, then tabulates their runtimes
+(the best of a few runs) and peak resident memory. Mismatches are shown as
+diffs, and make the harness exit with status 1.
+
+Programs default to the ones in tools/differential, which stick to what clox
+implements so far: print and expression statements, without comments, and at
+most 256 constants per program. Other programs, like jlox/benchmarks, can be
+given on the command line as clox grows. Usage:
+
+    tools/differential.py [--runs N] [--jlox CMD] [programs or directories]
+
+clox is built with `make release`, which is optimized and leaves out the
+debugging traces. jlox is compiled with Maven unless --jlox gives the command
+running it, e.g. --jlox "java -cp jlox/target/classes tech.riadh.lox.Lox --vm".
+"""
+
+import argparse
+import difflib
+import os
+import shlex
+import subprocess
+import sys
+import tempfile
+import time
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+CLOX_DIR = os.path.join(ROOT, "clox")
+JLOX_DIR = os.path.join(ROOT, "jlox")
+CORPUS_DIR = os.path.join(ROOT, "tools", "differential")
+
+
+class Result:
+    def __init__(self, stdout, stderr, exit_code, seconds, max_rss_kb):
+        self.stdout = stdout
+        self.stderr = stderr
+        self.exit_code = exit_code
+        self.seconds = seconds
+        self.max_rss_kb = max_rss_kb
+
+
+def build_clox():
+    subprocess.run(["make", "-C", CLOX_DIR, "release"], check=True, stdout=subprocess.DEVNULL)
+    return [os.path.join(CLOX_DIR, "build", "release", "lox")]
+
+
+def build_jlox():
+    subprocess.run(["mvn", "-B", "-q", "-f", os.path.join(JLOX_DIR, "pom.xml"), "compile"], check=True)
+    return ["java", "-cp", os.path.join(JLOX_DIR, "target", "classes"), "tech.riadh.lox.Lox"]
+
+
+def run(command, program):
+    """Runs a program once, measuring the wall time and the peak RSS of the process."""
+    with tempfile.TemporaryFile() as stdout, tempfile.TemporaryFile() as stderr:
+        start = time.perf_counter()
+        process = subprocess.Popen(command + [program], stdin=subprocess.DEVNULL, stdout=stdout, stderr=stderr)
+        # wait4 reports the resources of this very child, unlike getrusage
+        _, status, usage = os.wait4(process.pid, 0)
+        seconds = time.perf_counter() - start
+        process.returncode = os.waitstatus_to_exitcode(status)
+
+        stdout.seek(0)
+        stderr.seek(0)
+        return Result(stdout.read().decode("utf-8", "replace"), stderr.read().decode("utf-8", "replace"),
+                      process.returncode, seconds, usage.ru_maxrss)
+
+
+def measure(command, program, runs):
+    """Runs a program a few times, keeping the output of the first run, the best time and the peak RSS."""
+    results = [run(command, program) for _ in range(runs)]
+    first = results[0]
+    first.seconds = min(result.seconds for result in results)
+    first.max_rss_kb = max(result.max_rss_kb for result in results)
+    return first
+
+
+def programs(paths):
+    found = []
+    for path in paths:
+        if os.path.isdir(path):
+            found.extend(sorted(os.path.join(path, name) for name in os.listdir(path) if name.endswith(".lox")))
+        else:
+            found.append(path)
+    return found
+
+
+def diff(name, expected, actual):
+    lines = difflib.unified_diff(expected.splitlines(), actual.splitlines(), "jlox " + name, "clox " + name,
+                                 lineterm="", n=1)
+    return "\n".join(list(lines)[:20])
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Compare jlox and clox on the same Lox programs.")
+    parser.add_argument("programs", nargs="*", help="programs or directories of programs to run")
+    parser.add_argument("--runs", type=int, default=3, help="runs of each program to time (default 3)")
+    parser.add_argument("--jlox", help="command running jlox, instead of compiling it with Maven")
+    args = parser.parse_args()
+
+    clox = build_clox()
+    jlox = shlex.split(args.jlox) if args.jlox else build_jlox()
+
+    paths = programs(args.programs or [CORPUS_DIR])
+
+    print(f"{'program':<22} {'stdout':>6} {'stderr':>6} {'exit':>6} {'jlox ms':>9} {'clox ms':>9} "
+          f"{'ratio':>7} {'jlox MB':>8} {'clox MB':>8}")
+    failures = []
+    for path in paths:
+        name = os.path.basename(path)
+        j = measure(jlox, path, args.runs)
+        c = measure(clox, path, args.runs)
+
+        same = [j.stdout == c.stdout, j.stderr == c.stderr, j.exit_code == c.exit_code]
+        marks = ["ok" if s else "DIFF" for s in same]
+        print(f"{name:<22} {marks[0]:>6} {marks[1]:>6} {marks[2]:>6} {j.seconds * 1000:>9.1f} "
+              f"{c.seconds * 1000:>9.1f} {j.seconds / c.seconds:>6.1f}x "
+              f"{j.max_rss_kb / 1024:>8.1f} {c.max_rss_kb / 1024:>8.1f}")
+
+        if not same[0]:
+            failures.append(diff(name + " (stdout)", j.stdout, c.stdout))
+        if not same[1]:
+            failures.append(diff(name + " (stderr)", j.stderr, c.stderr))
+        if not same[2]:
+            failures.append(f"{name}: jlox exited with {j.exit_code}, clox with {c.exit_code}")
+
+    for failure in failures:
+        print()
+        print(failure)
+    return 1 if failures else 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())